@@ -0,0 +1,112 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.cache.VaccineInventory;
+import scheduler.db.ConnectionManager;
+import scheduler.model.Appointment;
+import scheduler.model.AssignmentPolicy;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Many threads reserving on the same date under each caregiver assignment policy. Besides the
+ * throughput, the lostClaims counter totals the availability rows reservations found already taken
+ * by a concurrent one, which is the contention the policies are meant to remove; divided by the
+ * reservations counter it gives lost claims per reservation.
+ *
+ * Every thread is its own patient and cancels what it booked outside the measured call, so the
+ * date keeps all its caregivers available.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class AssignmentContentionBenchmark {
+
+    private static final int PATIENTS = 64;
+
+    @State(Scope.Benchmark)
+    public static class Data {
+        @Param({"FIRST", "RANDOM", "ROUND_ROBIN", "PATIENT_HASH", "LEAST_BOOKED"})
+        public AssignmentPolicy policy;
+
+        @Param({"20"})
+        public int caregivers;
+
+        private final AtomicInteger nextPatient = new AtomicInteger();
+        private Date day;
+
+        @Setup(Level.Trial)
+        public void setUp() throws SQLException {
+            BenchDatabase.useEmbedded();
+            System.setProperty("HashIterations", "1000");
+            // the pool should not be what the threads queue on
+            System.setProperty("PoolMaxSize", "16");
+            BenchDatabase.seed(caregivers, PATIENTS, 1, 100_000_000, 0);
+            day = BenchDatabase.day(0);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            VaccineInventory.getInstance().shutdown();
+            ConnectionManager.getInstance().shutdown();
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Contention {
+        public long lostClaims;
+        public long reservations;
+
+        private String patient;
+        private Appointment booked;
+
+        @Setup(Level.Iteration)
+        public void setUp(Data data) {
+            if (patient == null) {
+                patient = BenchDatabase.patient(data.nextPatient.getAndIncrement() % PATIENTS);
+            }
+            lostClaims = 0;
+            reservations = 0;
+        }
+
+        @TearDown(Level.Invocation)
+        public void cancelBooking() throws SQLException {
+            if (booked != null) {
+                Appointment.cancel(booked.getAppointmentId(), null, patient);
+                booked = null;
+            }
+        }
+    }
+
+    @Benchmark
+    public Appointment reserve(Data data, Contention contention) throws SQLException {
+        Appointment.AppointmentReserver reserver =
+                new Appointment.AppointmentReserver(contention.patient, data.day, BenchDatabase.VACCINE)
+                        .setPolicy(data.policy);
+        contention.booked = reserver.reserve();
+        contention.lostClaims += reserver.getLostClaims();
+        contention.reservations++;
+        return contention.booked;
+    }
+}
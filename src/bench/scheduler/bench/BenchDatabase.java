@@ -0,0 +1,119 @@
+package scheduler.bench;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.Query;
+import scheduler.util.PasswordHasher;
+import scheduler.util.Util;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+/**
+ * Seeds an embedded database for the JMH benchmarks. Each JMH fork is a new JVM, so every trial gets
+ * its own empty in-memory database, created on first use from create.sql.
+ *
+ * Settings are read once, when the scheduler classes first load, so {@link #useEmbedded} and any
+ * other System.setProperty calls must come before the first database or hashing call of a fork.
+ */
+public final class BenchDatabase {
+
+    public static final String PASSWORD = "bench-password";
+    public static final String VACCINE = "bench_vaccine";
+    public static final LocalDate FIRST_DAY = LocalDate.of(2100, 1, 1);
+
+    private BenchDatabase() {
+    }
+
+    // Points the scheduler at an in-memory H2 database unless DatabaseUrl is already set.
+    public static void useEmbedded() {
+        if (System.getProperty("DatabaseUrl") == null) {
+            System.setProperty("DatabaseUrl", "jdbc:h2:mem:bench");
+        }
+    }
+
+    public static String caregiver(int i) {
+        return "bench_caregiver_" + i;
+    }
+
+    public static String patient(int i) {
+        return "bench_patient_" + i;
+    }
+
+    public static Date day(int d) {
+        return Date.valueOf(FIRST_DAY.plusDays(d));
+    }
+
+    /**
+     * Creates the given numbers of caregivers and patients, all with {@link #PASSWORD} hashed once
+     * with the current parameters, every caregiver available on each of the first {@code days} days,
+     * {@link #VACCINE} with the given doses, and {@code appointments} appointments for patient 0
+     * spread over the caregivers and days.
+     */
+    public static void seed(int caregivers, int patients, int days, int doses, int appointments)
+            throws SQLException {
+        byte[] salt = Util.generateSalt();
+        byte[] hash = Util.generateHash(PASSWORD, salt);
+        PasswordHasher.Params params = PasswordHasher.getInstance().getParams();
+
+        ConnectionManager cm = ConnectionManager.getInstance();
+        Connection con = cm.borrowConnection();
+        try {
+            con.setAutoCommit(false);
+            PreparedStatement statement = cm.prepareStatement(con, Query.ADD_CAREGIVER);
+            for (int c = 0; c < caregivers; c++) {
+                bindAccount(statement, caregiver(c), salt, hash, params);
+            }
+            statement.executeBatch();
+            statement = cm.prepareStatement(con, Query.ADD_PATIENT);
+            for (int p = 0; p < patients; p++) {
+                bindAccount(statement, patient(p), salt, hash, params);
+            }
+            statement.executeBatch();
+
+            statement = cm.prepareStatement(con, Query.ADD_AVAILABILITY);
+            for (int d = 0; d < days; d++) {
+                for (int c = 0; c < caregivers; c++) {
+                    statement.setDate(1, day(d));
+                    statement.setString(2, caregiver(c));
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+
+            statement = cm.prepareStatement(con, Query.ADD_VACCINE);
+            statement.setString(1, VACCINE);
+            statement.setInt(2, doses);
+            statement.executeUpdate();
+
+            statement = cm.prepareStatement(con, Query.IMPORT_APPOINTMENT);
+            for (int a = 0; a < appointments; a++) {
+                statement.setString(1, caregiver(a % caregivers));
+                statement.setString(2, VACCINE);
+                statement.setDate(3, day(a % Math.max(1, days)));
+                statement.setString(4, patient(0));
+                statement.addBatch();
+                if (a % 1000 == 999) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+            con.commit();
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    private static void bindAccount(PreparedStatement statement, String username, byte[] salt, byte[] hash,
+                                    PasswordHasher.Params params) throws SQLException {
+        statement.setString(1, username);
+        statement.setBytes(2, salt);
+        statement.setBytes(3, hash);
+        statement.setString(4, params.getAlgorithm());
+        statement.setInt(5, params.getIterations());
+        statement.setInt(6, params.getKeyLength());
+        statement.addBatch();
+    }
+}
@@ -0,0 +1,235 @@
+package scheduler.bench;
+
+import scheduler.Scheduler;
+import scheduler.Session;
+import scheduler.cache.VaccineInventory;
+import scheduler.db.ConnectionManager;
+import scheduler.model.Appointment;
+import scheduler.model.Patient;
+import scheduler.util.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulates bookings opening on vaccination day: patients arrive at random (Poisson) at LoadRate
+ * requests per second for LoadSeconds seconds and run reserve, or with probability LoadCancelRatio
+ * cancel one of their earlier bookings, through Scheduler.execute on LoadWorkers threads. A share
+ * LoadHotFraction of reservations ask for one of the first LoadHotDays days, the rest for any of the
+ * LoadDays days.
+ *
+ * Arrivals do not wait for earlier requests, and latency is measured from when a request arrived,
+ * so time spent queued behind slow requests counts. Afterwards the report gives throughput, latency
+ * percentiles, outcomes, reservation retries and lost claims, and checks that no caregiver is booked
+ * twice on a day, that no booked slot is still offered, that no vaccine has negative doses and that
+ * doses taken match the appointments made. The exit status is 1 if any check fails.
+ *
+ * Settings are read like the scheduler's own, e.g. -DLoadRate=2000. Without DatabaseUrl it runs on
+ * an in-memory H2 database; against another database, use a scratch one, as it seeds bench_ rows.
+ */
+public class LoadGenerator {
+
+    private final int patients = Config.getInt("LoadPatients", 10_000);
+    private final int caregivers = Config.getInt("LoadCaregivers", 100);
+    private final int days = Config.getInt("LoadDays", 30);
+    private final int hotDays = Config.getInt("LoadHotDays", 3);
+    private final double hotFraction = Double.parseDouble(Config.get("LoadHotFraction", "0.9"));
+    private final double rate = Double.parseDouble(Config.get("LoadRate", "500"));
+    private final int seconds = Config.getInt("LoadSeconds", 30);
+    private final int workers = Config.getInt("LoadWorkers", 64);
+    private final double cancelRatio = Double.parseDouble(Config.get("LoadCancelRatio", "0.1"));
+    private final int doses = Config.getInt("LoadDoses", 1_000_000);
+
+    private final Patient[] patientAccounts = new Patient[patients];
+    // appointment ids each patient could still cancel
+    private final List<Queue<Integer>> bookings = new ArrayList<>();
+
+    private final long[] latencies;
+    private final AtomicInteger completed = new AtomicInteger();
+    private final LongAdder reserved = new LongAdder();
+    private final LongAdder noCaregiver = new LongAdder();
+    private final LongAdder noDoses = new LongAdder();
+    private final LongAdder canceled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private LoadGenerator() {
+        for (int p = 0; p < patients; p++) {
+            patientAccounts[p] = new Patient.PatientBuilder(BenchDatabase.patient(p), new byte[0], new byte[0]).build();
+            bookings.add(new ConcurrentLinkedQueue<>());
+        }
+        latencies = new long[(int) Math.min(Integer.MAX_VALUE - 8, (long) (rate * seconds * 2) + 1024)];
+    }
+
+    public static void main(String[] args) throws Exception {
+        BenchDatabase.useEmbedded();
+        if (System.getProperty("HashIterations") == null) {
+            // accounts are seeded, not logged into, so their hashes only need to exist
+            System.setProperty("HashIterations", "1000");
+        }
+        boolean ok;
+        try {
+            ok = new LoadGenerator().run();
+        } finally {
+            VaccineInventory.getInstance().shutdown();
+            ConnectionManager.getInstance().shutdown();
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    private boolean run() throws InterruptedException, SQLException {
+        BenchDatabase.seed(caregivers, patients, days, doses, 0);
+        System.out.println("Seeded " + patients + " patients, " + caregivers + " caregivers x " + days +
+                " days, " + doses + " doses");
+        System.out.println("Offering " + String.format("%.0f", rate) + " requests/s for " + seconds + " s on " +
+                workers + " workers, " + String.format("%.0f%%", hotFraction * 100) + " of them for the first " +
+                hotDays + " days");
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long arrival = start;
+        int offered = 0;
+        while (offered < latencies.length) {
+            // exponential gaps between arrivals
+            arrival += (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) / rate * 1e9);
+            if (arrival >= end) {
+                break;
+            }
+            long wait = arrival - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            long arrivedAt = arrival;
+            pool.execute(() -> request(arrivedAt));
+            offered++;
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.HOURS);
+        long elapsed = System.nanoTime() - start;
+
+        report(offered, elapsed);
+        return checkInvariants();
+    }
+
+    private void request(long arrivedAt) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int p = random.nextInt(patients);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Session session = new Session(new PrintStream(output, true, StandardCharsets.UTF_8));
+        session.setCurrentPatient(patientAccounts[p]);
+
+        Integer toCancel = random.nextDouble() < cancelRatio ? bookings.get(p).poll() : null;
+        if (toCancel != null) {
+            Scheduler.execute(session, "cancel " + toCancel);
+        } else {
+            int day = random.nextDouble() < hotFraction ? random.nextInt(hotDays) : random.nextInt(days);
+            Scheduler.execute(session, "reserve " + BenchDatabase.day(day) + " " + BenchDatabase.VACCINE);
+        }
+        long latency = System.nanoTime() - arrivedAt;
+        int i = completed.getAndIncrement();
+        if (i < latencies.length) {
+            latencies[i] = latency;
+        }
+
+        String result = output.toString(StandardCharsets.UTF_8);
+        if (result.startsWith("Appointment ID: {")) {
+            reserved.increment();
+            bookings.get(p).add(Integer.parseInt(result.substring("Appointment ID: {".length(), result.indexOf('}'))));
+        } else if (result.startsWith("Appointment successfully canceled!")) {
+            canceled.increment();
+        } else if (result.startsWith("No Caregiver is available!")) {
+            noCaregiver.increment();
+        } else if (result.startsWith("Not enough available doses!")) {
+            noDoses.increment();
+        } else {
+            failed.increment();
+        }
+    }
+
+    private void report(int offered, long elapsedNanos) {
+        int count = Math.min(completed.get(), latencies.length);
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        double elapsed = elapsedNanos / 1e9;
+        long reservations = reserved.sum() + noCaregiver.sum() + noDoses.sum();
+
+        System.out.println();
+        System.out.printf("Requests: %d offered, %d completed in %.1f s (%.1f requests/s)%n",
+                offered, completed.get(), elapsed, completed.get() / elapsed);
+        System.out.printf("Latency: p50=%.3f ms  p99=%.3f ms  p999=%.3f ms  max=%.3f ms%n",
+                percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 0.999),
+                count == 0 ? 0 : sorted[count - 1] / 1e6);
+        System.out.printf("Outcomes: reserved=%d no_caregiver=%d no_doses=%d canceled=%d failed=%d%n",
+                reserved.sum(), noCaregiver.sum(), noDoses.sum(), canceled.sum(), failed.sum());
+        System.out.printf("Contention: retries=%d (%.2f per reservation), lost claims=%d (%.2f per reservation)%n",
+                Appointment.getReservationRetryCount(), perReservation(Appointment.getReservationRetryCount(), reservations),
+                Appointment.getLostClaimCount(), perReservation(Appointment.getLostClaimCount(), reservations));
+        System.out.println("Pool: " + ConnectionManager.getInstance());
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * p) - 1)] / 1e6;
+    }
+
+    private static double perReservation(long count, long reservations) {
+        return reservations == 0 ? 0 : (double) count / reservations;
+    }
+
+    private boolean checkInvariants() throws SQLException {
+        System.out.println();
+        ConnectionManager cm = ConnectionManager.getInstance();
+        Connection con = cm.borrowConnection();
+        try (Statement statement = con.createStatement()) {
+            boolean ok = check(statement, "no caregiver booked twice on a day",
+                    "SELECT COUNT(*) FROM (SELECT Caregiver_username, Time FROM Appointments " +
+                            "GROUP BY Caregiver_username, Time HAVING COUNT(*) > 1) AS D", 0);
+            ok &= check(statement, "no booked slot still available",
+                    "SELECT COUNT(*) FROM Appointments AS A JOIN Availabilities AS V " +
+                            "ON V.Time = A.Time AND V.Username = A.Caregiver_username", 0);
+            ok &= check(statement, "no negative doses",
+                    "SELECT COUNT(*) FROM Vaccines WHERE Doses < 0", 0);
+            long appointments = count(statement, "SELECT COUNT(*) FROM Appointments WHERE Vaccine_name = '" +
+                    BenchDatabase.VACCINE + "'");
+            ok &= check(statement, "doses taken match appointments",
+                    "SELECT " + doses + " - Doses FROM Vaccines WHERE Name = '" + BenchDatabase.VACCINE + "'",
+                    appointments);
+            return ok;
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    private static boolean check(Statement statement, String name, String sql, long expected) throws SQLException {
+        long actual = count(statement, sql);
+        boolean ok = actual == expected;
+        System.out.println((ok ? "PASS " : "FAIL ") + name + (ok ? "" : " (expected " + expected + ", found " + actual + ")"));
+        return ok;
+    }
+
+    private static long count(Statement statement, String sql) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery(sql)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.util.PasswordHasher;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one password hash, i.e. the CPU part of a login or account creation, across the
+ * HashAlgorithm/HashIterations settings. {@code factoryPerCall} is how Util.generateHash used to
+ * work (a new SecretKeyFactory per call) and is the baseline for {@code pooledMac}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordHashBenchmark {
+
+    @Param({"PBKDF2WithHmacSHA1", "PBKDF2WithHmacSHA256", "PBKDF2WithHmacSHA512"})
+    public String algorithm;
+
+    @Param({"10", "10000", "100000", "600000"})
+    public int iterations;
+
+    @Param({"256"})
+    public int keyLength;
+
+    private PasswordHasher.Params params;
+    private final byte[] salt = new byte[16];
+    private final String password = "correct horse battery staple";
+
+    @Setup
+    public void setUp() {
+        params = new PasswordHasher.Params(algorithm, iterations, keyLength);
+    }
+
+    @Benchmark
+    public byte[] pooledMac() {
+        return PasswordHasher.getInstance().hash(password, salt, params);
+    }
+
+    @Benchmark
+    public byte[] factoryPerCall() throws Exception {
+        SecretKeyFactory factory = SecretKeyFactory.getInstance(algorithm);
+        return factory.generateSecret(new PBEKeySpec(password.toCharArray(), salt, iterations, keyLength))
+                .getEncoded();
+    }
+}
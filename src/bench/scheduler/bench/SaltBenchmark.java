@@ -0,0 +1,49 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.util.SaltGenerator;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Salt generation with many account-creation threads at once: a new SecureRandom per call (how
+ * Util.generateSalt used to work) against SaltGenerator's per-thread generators.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class SaltBenchmark {
+
+    private static final int BULK = 64;
+
+    @Benchmark
+    public byte[] perCallSecureRandom() {
+        SecureRandom random = new SecureRandom();
+        byte[] salt = new byte[16];
+        random.nextBytes(salt);
+        return salt;
+    }
+
+    @Benchmark
+    public byte[] threadLocal() {
+        return SaltGenerator.generateSalt();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BULK)
+    public byte[][] bulk() {
+        return SaltGenerator.generateSalts(BULK);
+    }
+}
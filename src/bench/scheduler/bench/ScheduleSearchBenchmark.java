@@ -0,0 +1,174 @@
+package scheduler.bench;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.Query;
+import scheduler.util.PasswordHasher;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Compares the old cross-join search_caregiver_schedule query with the current pair of queries on a
+ * large Availabilities table, printing the SQL Server query plans and per-query latency.
+ *
+ * Usage: ScheduleSearchBenchmark [caregivers] [days] [vaccines] [iterations]
+ *
+ * Rows are seeded under a "bench_" prefix in the database configured for ConnectionManager and
+ * removed again at the end, so point it at a scratch database.
+ */
+public class ScheduleSearchBenchmark {
+
+    private static final String PREFIX = "bench_";
+    private static final String CROSS_JOIN = "SELECT A.Username, V.Name, V.Doses " +
+            "FROM Availabilities AS A, Vaccines AS V WHERE A.Time = ? ORDER BY A.Username";
+
+    public static void main(String[] args) throws SQLException {
+        int caregivers = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int days = args.length > 1 ? Integer.parseInt(args[1]) : 90;
+        int vaccines = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+        LocalDate firstDay = LocalDate.of(2100, 1, 1);
+        Date probe = Date.valueOf(firstDay.plusDays(days / 2));
+
+        ConnectionManager cm = ConnectionManager.getInstance();
+        Connection con = cm.borrowConnection();
+        try {
+            cleanUp(con);
+            seed(con, caregivers, days, vaccines, firstDay);
+            System.out.println("Seeded " + caregivers + " caregivers x " + days + " days = " +
+                    (long) caregivers * days + " availabilities, " + vaccines + " vaccines");
+
+            System.out.println();
+            System.out.println("== Plan: cross join ==");
+            printPlan(con, CROSS_JOIN, probe);
+            System.out.println("== Plan: caregivers ==");
+            printPlan(con, Query.FIND_AVAILABLE_CAREGIVERS.getSql(), probe);
+            System.out.println("== Plan: vaccine inventory ==");
+            printPlan(con, Query.VACCINE_INVENTORY.getSql(), null);
+
+            System.out.println();
+            long[] crossJoin = new long[iterations];
+            long[] separate = new long[iterations];
+            long crossRows = 0;
+            long separateRows = 0;
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                try (PreparedStatement statement = con.prepareStatement(CROSS_JOIN)) {
+                    statement.setDate(1, probe);
+                    crossRows = drain(statement);
+                }
+                crossJoin[i] = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                PreparedStatement caregiverQuery = cm.prepareStatement(con, Query.FIND_AVAILABLE_CAREGIVERS);
+                caregiverQuery.setDate(1, probe);
+                separateRows = drain(caregiverQuery);
+                separateRows += drain(cm.prepareStatement(con, Query.VACCINE_INVENTORY));
+                separate[i] = System.nanoTime() - start;
+            }
+            report("cross join", crossJoin, crossRows);
+            report("separate", separate, separateRows);
+        } finally {
+            try {
+                cleanUp(con);
+            } finally {
+                cm.returnConnection(con);
+            }
+        }
+    }
+
+    private static void seed(Connection con, int caregivers, int days, int vaccines, LocalDate firstDay)
+            throws SQLException {
+        con.setAutoCommit(false);
+        try (PreparedStatement statement = con.prepareStatement(Query.ADD_CAREGIVER.getSql())) {
+            for (int c = 0; c < caregivers; c++) {
+                statement.setString(1, PREFIX + c);
+                statement.setBytes(2, new byte[16]);
+                statement.setBytes(3, new byte[16]);
+                statement.setString(4, PasswordHasher.LEGACY.getAlgorithm());
+                statement.setInt(5, PasswordHasher.LEGACY.getIterations());
+                statement.setInt(6, PasswordHasher.LEGACY.getKeyLength());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+        try (PreparedStatement statement = con.prepareStatement(Query.ADD_AVAILABILITY.getSql())) {
+            for (int d = 0; d < days; d++) {
+                Date day = Date.valueOf(firstDay.plusDays(d));
+                for (int c = 0; c < caregivers; c++) {
+                    statement.setDate(1, day);
+                    statement.setString(2, PREFIX + c);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+        }
+        try (PreparedStatement statement = con.prepareStatement(Query.ADD_VACCINE.getSql())) {
+            for (int v = 0; v < vaccines; v++) {
+                statement.setString(1, PREFIX + v);
+                statement.setInt(2, 100);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+        con.commit();
+        con.setAutoCommit(true);
+    }
+
+    private static void cleanUp(Connection con) throws SQLException {
+        try (Statement statement = con.createStatement()) {
+            statement.executeUpdate("DELETE FROM Availabilities WHERE Username LIKE '" + PREFIX + "%'");
+            statement.executeUpdate("DELETE FROM Caregivers WHERE Username LIKE '" + PREFIX + "%'");
+            statement.executeUpdate("DELETE FROM Vaccines WHERE Name LIKE '" + PREFIX + "%'");
+        }
+    }
+
+    // SHOWPLAN_TEXT returns the estimated plan instead of running the query; it does not accept
+    // parameter markers, so the probe date is inlined for this step only
+    private static void printPlan(Connection con, String sql, Date probe) throws SQLException {
+        String literal = probe == null ? sql : sql.replace("?", "'" + probe + "'");
+        try (Statement statement = con.createStatement()) {
+            statement.execute("SET SHOWPLAN_TEXT ON");
+            try {
+                boolean hasResults = statement.execute(literal);
+                while (hasResults || statement.getUpdateCount() != -1) {
+                    if (hasResults) {
+                        try (ResultSet resultSet = statement.getResultSet()) {
+                            while (resultSet.next()) {
+                                System.out.println(resultSet.getString(1));
+                            }
+                        }
+                    }
+                    hasResults = statement.getMoreResults();
+                }
+            } finally {
+                statement.execute("SET SHOWPLAN_TEXT OFF");
+            }
+        }
+    }
+
+    private static long drain(PreparedStatement statement) throws SQLException {
+        long rows = 0;
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    private static void report(String name, long[] nanos, long rows) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%-12s rows=%-8d p50=%8.3f ms  p99=%8.3f ms  max=%8.3f ms%n", name, rows,
+                sorted[sorted.length / 2] / 1e6,
+                sorted[Math.min(sorted.length - 1, (int) (sorted.length * 0.99))] / 1e6,
+                sorted[sorted.length - 1] / 1e6);
+    }
+}
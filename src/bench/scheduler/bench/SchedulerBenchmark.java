@@ -0,0 +1,201 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.Scheduler;
+import scheduler.Session;
+import scheduler.cache.VaccineInventory;
+import scheduler.db.ConnectionManager;
+import scheduler.model.Appointment;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The scheduler's commands end to end against an in-memory H2 database: login through
+ * PatientGetter/CaregiverGetter, and reserve, cancel, search_caregiver_schedule and show_appointments
+ * through Scheduler.execute, with their output discarded.
+ *
+ * Data sizes are parameters: caregivers (each available on every one of the seeded days) and the
+ * number of past appointments of the benchmarked patient. Reserve and cancel leave the data as they
+ * found it: every reservation is canceled, and every cancellation booked, outside the measured call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchedulerBenchmark {
+
+    private static final Pattern APPOINTMENT_ID = Pattern.compile("Appointment ID: \\{(\\d+)}");
+
+    @State(Scope.Benchmark)
+    public static class Data {
+        @Param({"10", "1000"})
+        public int caregivers;
+
+        @Param({"30"})
+        public int days;
+
+        @Param({"100", "10000"})
+        public int appointments;
+
+        Patient patient;
+        Session patientSession;
+        String probeDay;
+
+        @Setup(Level.Trial)
+        public void setUp() throws SQLException {
+            BenchDatabase.useEmbedded();
+            // accounts are seeded with one hash; login cost is measured separately in Login
+            System.setProperty("HashIterations", "1000");
+            BenchDatabase.seed(caregivers, 1, days, 1_000_000, appointments);
+            patient = new Patient.PatientGetter(BenchDatabase.patient(0), BenchDatabase.PASSWORD).get();
+            patientSession = discardingSession();
+            patientSession.setCurrentPatient(patient);
+            probeDay = BenchDatabase.day(days / 2).toString();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            VaccineInventory.getInstance().shutdown();
+            ConnectionManager.getInstance().shutdown();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Login {
+        @Param({"10000", "600000"})
+        public String hashIterations;
+
+        @Param({"0", "1024"})
+        public String loginCacheSize;
+
+        @Setup(Level.Trial)
+        public void setUp() throws SQLException {
+            BenchDatabase.useEmbedded();
+            System.setProperty("HashIterations", hashIterations);
+            System.setProperty("LoginCacheSize", loginCacheSize);
+            BenchDatabase.seed(1, 1, 0, 0, 0);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            ConnectionManager.getInstance().shutdown();
+        }
+    }
+
+    // Runs reserve and cancels what it booked once the measured call is over.
+    @State(Scope.Thread)
+    public static class Reservation {
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private Session session;
+        private String command;
+
+        @Setup(Level.Trial)
+        public void setUp(Data data) {
+            session = new Session(new PrintStream(output, true, StandardCharsets.UTF_8));
+            session.setCurrentPatient(data.patient);
+            command = "reserve " + data.probeDay + " " + BenchDatabase.VACCINE;
+        }
+
+        // invocations take tens of microseconds or more, well above the cost of per-call fixtures
+        @TearDown(Level.Invocation)
+        public void cancelBooking() {
+            Matcher matcher = APPOINTMENT_ID.matcher(output.toString(StandardCharsets.UTF_8));
+            if (!matcher.find()) {
+                throw new IllegalStateException("Reservation failed: " + output);
+            }
+            output.reset();
+            Scheduler.execute(session, "cancel " + matcher.group(1));
+            output.reset();
+        }
+    }
+
+    // Books an appointment before each measured cancel.
+    @State(Scope.Thread)
+    public static class Cancellation {
+        private Session session;
+        private String patientUsername;
+        private Date day;
+        private String command;
+
+        @Setup(Level.Trial)
+        public void setUp(Data data) {
+            session = discardingSession();
+            session.setCurrentPatient(data.patient);
+            patientUsername = data.patient.getUsername();
+            day = Date.valueOf(data.probeDay);
+        }
+
+        @Setup(Level.Invocation)
+        public void book() throws SQLException {
+            Appointment appointment = new Appointment.AppointmentReserver(patientUsername, day,
+                    BenchDatabase.VACCINE).reserve();
+            if (appointment == null) {
+                throw new IllegalStateException("Reservation failed");
+            }
+            command = "cancel " + appointment.getAppointmentId();
+        }
+    }
+
+    @Benchmark
+    public Patient loginPatient(Login login) throws SQLException {
+        return new Patient.PatientGetter(BenchDatabase.patient(0), BenchDatabase.PASSWORD).get();
+    }
+
+    @Benchmark
+    public Caregiver loginCaregiver(Login login) throws SQLException {
+        return new Caregiver.CaregiverGetter(BenchDatabase.caregiver(0), BenchDatabase.PASSWORD).get();
+    }
+
+    @Benchmark
+    public boolean reserve(Data data, Reservation reservation) {
+        return Scheduler.execute(reservation.session, reservation.command);
+    }
+
+    @Benchmark
+    public boolean cancel(Data data, Cancellation cancellation) {
+        return Scheduler.execute(cancellation.session, cancellation.command);
+    }
+
+    @Benchmark
+    public boolean searchCaregiverSchedule(Data data) {
+        return Scheduler.execute(data.patientSession, "search_caregiver_schedule " + data.probeDay);
+    }
+
+    @Benchmark
+    public boolean showAppointmentsFirstPage(Data data) {
+        return Scheduler.execute(data.patientSession, "show_appointments");
+    }
+
+    // the last page of a long history, which keyset paging should make as cheap as the first
+    @Benchmark
+    public boolean showAppointmentsLastPage(Data data) {
+        return Scheduler.execute(data.patientSession, "show_appointments " + (data.appointments - 101) + " 100");
+    }
+
+    private static Session discardingSession() {
+        return new Session(new PrintStream(OutputStream.nullOutputStream()));
+    }
+}
@@ -0,0 +1,41 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.util.Tokenizer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splitting a command line with Tokenizer against the String.split(" ") Scheduler.execute used to
+ * call. Run with -prof gc to compare allocation per command.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+
+    @Param({"logout", "reserve 2024-05-01 Pfizer", "show_appointments 1200 50 2024-01-01 2024-12-31"})
+    public String line;
+
+    @Benchmark
+    public String[] tokenizer() {
+        return Tokenizer.split(line);
+    }
+
+    @Benchmark
+    public String[] stringSplit() {
+        return line.split(" ");
+    }
+}
@@ -0,0 +1,72 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.util.Util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Util.generateHash with the configured hasher at different HashIterations, and Util.trim on hashes
+ * of different lengths and amounts of zero padding.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UtilBenchmark {
+
+    @State(Scope.Thread)
+    public static class HashState {
+        @Param({"10", "10000", "600000"})
+        public String hashIterations;
+
+        private final byte[] salt = new byte[16];
+
+        @Setup
+        public void setUp() {
+            // read when PasswordHasher first loads, which is in this fork's first generateHash
+            System.setProperty("HashIterations", hashIterations);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class TrimState {
+        @Param({"16", "64", "1024"})
+        public int length;
+
+        @Param({"0", "8"})
+        public int trailingZeros;
+
+        private byte[] bytes;
+
+        @Setup
+        public void setUp() {
+            bytes = new byte[length];
+            for (int i = 0; i < length - trailingZeros; i++) {
+                bytes[i] = (byte) (i % 255 + 1);
+            }
+        }
+    }
+
+    @Benchmark
+    public byte[] generateHash(HashState state) {
+        return Util.generateHash(BenchDatabase.PASSWORD, state.salt);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public byte[] trim(TrimState state) {
+        return Util.trim(state.bytes);
+    }
+}
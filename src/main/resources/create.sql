@@ -1,7 +1,14 @@
 CREATE TABLE Caregivers (
     Username varchar(255),
     Salt BINARY(16),
-    Hash BINARY(16),
+    Hash VARBINARY(64),
+    -- the PBKDF2 parameters Hash was made with; the defaults describe hashes from before they were stored
+    HashAlgorithm varchar(32) NOT NULL DEFAULT 'PBKDF2WithHmacSHA1',
+    HashIterations int NOT NULL DEFAULT 10,
+    HashKeyLength int NOT NULL DEFAULT 16,
+    -- bumped by every write to the caregiver's availability so processes indexing it can tell when
+    -- their copy is stale
+    AvailabilityVersion bigint NOT NULL DEFAULT 0,
     PRIMARY KEY (Username)
 );
 
@@ -14,21 +21,39 @@ CREATE TABLE Availabilities (
 CREATE TABLE Vaccines (
     Name varchar(255),
     Doses int,
+    -- bumped by every write so processes caching the inventory can tell when their copy is stale
+    Version bigint NOT NULL DEFAULT 0,
     PRIMARY KEY (Name)
 );
 
 CREATE TABLE Patients (
     Username varchar(255),
     Salt BINARY(16),
-    Hash BINARY(16),
+    Hash VARBINARY(64),
+    -- the PBKDF2 parameters Hash was made with; the defaults describe hashes from before they were stored
+    HashAlgorithm varchar(32) NOT NULL DEFAULT 'PBKDF2WithHmacSHA1',
+    HashIterations int NOT NULL DEFAULT 10,
+    HashKeyLength int NOT NULL DEFAULT 16,
     PRIMARY KEY (Username)
 );
 
 CREATE TABLE Appointments (
-    Appointment_id int,
+    Appointment_id int IDENTITY(0, 1),
     Caregiver_username varchar(255) REFERENCES Caregivers,
     Vaccine_name varchar(255) REFERENCES Vaccines,
     Time date,
     Patient_username varchar(255) REFERENCES Patients,
     PRIMARY KEY (Appointment_id)
-);
\ No newline at end of file
+);
+
+-- Availabilities lookups by date are served by the primary key, whose leading column is Time;
+-- this index serves reloading one caregiver's days.
+CREATE INDEX Availabilities_Username ON Availabilities (Username, Time);
+
+-- Covering indexes for show_appointments: the key holds every selected column, and
+-- Appointment_id follows the username so results come back in id order without a sort.
+CREATE INDEX Appointments_Caregiver
+    ON Appointments (Caregiver_username, Appointment_id, Vaccine_name, Time, Patient_username);
+
+CREATE INDEX Appointments_Patient
+    ON Appointments (Patient_username, Appointment_id, Vaccine_name, Time, Caregiver_username);
@@ -0,0 +1,32 @@
+-- Appointment ids are generated by the database (Appointment_id IDENTITY(0, 1)).
+-- A column cannot be made an identity in place, so the appointments are moved aside, the table is
+-- created again and they are copied back with their ids; SQL Server then continues the identity
+-- after the largest of them. The copy runs in one transaction, so a failure leaves the table as it was.
+BEGIN TRANSACTION;
+
+CREATE TABLE Appointments_Old (
+    Appointment_id int,
+    Caregiver_username varchar(255),
+    Vaccine_name varchar(255),
+    Time date,
+    Patient_username varchar(255)
+);
+INSERT INTO Appointments_Old (Appointment_id, Caregiver_username, Vaccine_name, Time, Patient_username)
+    SELECT Appointment_id, Caregiver_username, Vaccine_name, Time, Patient_username FROM Appointments;
+DROP TABLE Appointments;
+
+CREATE TABLE Appointments (
+    Appointment_id int IDENTITY(0, 1),
+    Caregiver_username varchar(255) REFERENCES Caregivers,
+    Vaccine_name varchar(255) REFERENCES Vaccines,
+    Time date,
+    Patient_username varchar(255) REFERENCES Patients,
+    PRIMARY KEY (Appointment_id)
+);
+SET IDENTITY_INSERT Appointments ON;
+INSERT INTO Appointments (Appointment_id, Caregiver_username, Vaccine_name, Time, Patient_username)
+    SELECT Appointment_id, Caregiver_username, Vaccine_name, Time, Patient_username FROM Appointments_Old;
+SET IDENTITY_INSERT Appointments OFF;
+DROP TABLE Appointments_Old;
+
+COMMIT;
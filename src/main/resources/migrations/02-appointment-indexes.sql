@@ -0,0 +1,7 @@
+-- Covering indexes for show_appointments: the key holds every selected column, and
+-- Appointment_id follows the username so results come back in id order without a sort.
+CREATE INDEX Appointments_Caregiver
+    ON Appointments (Caregiver_username, Appointment_id, Vaccine_name, Time, Patient_username);
+
+CREATE INDEX Appointments_Patient
+    ON Appointments (Patient_username, Appointment_id, Vaccine_name, Time, Caregiver_username);
@@ -0,0 +1,3 @@
+-- Bumped by every write to a vaccine so processes caching the inventory can tell when their copy
+-- is stale; existing rows start at 0.
+ALTER TABLE Vaccines ADD Version bigint NOT NULL DEFAULT 0;
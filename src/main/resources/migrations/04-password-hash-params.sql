@@ -0,0 +1,12 @@
+-- Hashes record the PBKDF2 parameters they were made with and may be longer than 16 bytes. The
+-- defaults describe the hashes made before the parameters were stored, which are rehashed with the
+-- configured ones as their users log in.
+ALTER TABLE Caregivers ALTER COLUMN Hash VARBINARY(64);
+ALTER TABLE Caregivers ADD HashAlgorithm varchar(32) NOT NULL DEFAULT 'PBKDF2WithHmacSHA1';
+ALTER TABLE Caregivers ADD HashIterations int NOT NULL DEFAULT 10;
+ALTER TABLE Caregivers ADD HashKeyLength int NOT NULL DEFAULT 16;
+
+ALTER TABLE Patients ALTER COLUMN Hash VARBINARY(64);
+ALTER TABLE Patients ADD HashAlgorithm varchar(32) NOT NULL DEFAULT 'PBKDF2WithHmacSHA1';
+ALTER TABLE Patients ADD HashIterations int NOT NULL DEFAULT 10;
+ALTER TABLE Patients ADD HashKeyLength int NOT NULL DEFAULT 16;
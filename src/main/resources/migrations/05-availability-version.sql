@@ -0,0 +1,5 @@
+-- The per-caregiver availability reload uses this index.
+CREATE INDEX Availabilities_Username ON Availabilities (Username, Time);
+
+-- The availability index compares versions to find caregivers changed by other processes.
+ALTER TABLE Caregivers ADD AvailabilityVersion bigint NOT NULL DEFAULT 0;
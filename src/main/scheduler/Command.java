@@ -0,0 +1,10 @@
+package scheduler;
+
+/**
+ * A command the scheduler accepts, e.g. reserve. It receives the whole command line split into
+ * tokens, the command name first, and prints its result through the session.
+ */
+@FunctionalInterface
+public interface Command {
+    void run(Session session, String[] tokens);
+}
@@ -1,48 +1,93 @@
 package scheduler;
 
+import scheduler.batch.BatchRunner;
+import scheduler.batch.BulkLoader;
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.SessionTokens;
+import scheduler.cache.UsernameCache;
+import scheduler.cache.VaccineInventory;
 import scheduler.db.ConnectionManager;
+import scheduler.db.Query;
+import scheduler.metrics.Metrics;
+import scheduler.model.Appointment;
+import scheduler.model.AssignmentPolicy;
 import scheduler.model.Caregiver;
 import scheduler.model.Patient;
 import scheduler.model.Vaccine;
+import scheduler.util.Config;
+import scheduler.util.Tokenizer;
 import scheduler.util.Util;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Date;
+import java.time.DayOfWeek;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Scheduler {
 
-    // objects to keep track of the currently logged-in user
-    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
-    //       since only one user can be logged-in at a time
-    private static Caregiver currentCaregiver = null;
-    private static Patient currentPatient = null;
+    // command name -> handler; a hash lookup per command line instead of a chain of comparisons
+    private static final Map<String, Command> COMMANDS = new ConcurrentHashMap<>();
+    private static final List<String> EXTRA_USAGES = new CopyOnWriteArrayList<>();
 
-    public static void main(String[] args) {
+    static {
+        COMMANDS.put("create_patient", Scheduler::createPatient);
+        COMMANDS.put("create_caregiver", Scheduler::createCaregiver);
+        COMMANDS.put("login_patient", Scheduler::loginPatient);
+        COMMANDS.put("login_caregiver", Scheduler::loginCaregiver);
+        COMMANDS.put("resume", Scheduler::resume);
+        COMMANDS.put("search_caregiver_schedule", Scheduler::searchCaregiverSchedule);
+        COMMANDS.put("reserve", Scheduler::reserve);
+        COMMANDS.put("reserve_earliest", Scheduler::reserveEarliest);
+        COMMANDS.put("upload_availability", Scheduler::uploadAvailability);
+        COMMANDS.put("upload_availability_range", Scheduler::uploadAvailabilityRange);
+        COMMANDS.put("cancel", Scheduler::cancel);
+        COMMANDS.put("cancel_day", Scheduler::cancelDay);
+        COMMANDS.put("add_doses", Scheduler::addDoses);
+        COMMANDS.put("show_appointments", Scheduler::showAppointments);
+        COMMANDS.put("logout", Scheduler::logout);
+        COMMANDS.put("metrics", (session, tokens) -> session.println(Metrics.dump()));
+        COMMANDS.put("quit", (session, tokens) -> {
+            session.println("Bye!");
+            session.quit();
+        });
+    }
+
+    public static void main(String[] args) throws IOException {
+        // fail on a bad AssignmentPolicy setting now rather than at the first reservation
+        AssignmentPolicy.fromConfig();
+        // Scheduler --batch [file] runs a command script instead of the interactive prompt
+        if (args.length > 0 && args[0].equals("--batch")) {
+            BatchRunner.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // Scheduler --import <table> <file> and --export <table> <file> load or dump a table as CSV
+        if (args.length > 0 && (args[0].equals("--import") || args[0].equals("--export"))) {
+            String[] bulkArgs = args.clone();
+            bulkArgs[0] = args[0].substring(2);
+            BulkLoader.main(bulkArgs);
+            return;
+        }
+        // the first lookup should not have to wait for every availability to be read
+        AvailabilityIndex.getInstance().preload();
         // printing greetings text
-        System.out.println();
-        System.out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
-        System.out.println("*** Please enter one of the following commands ***");
-        System.out.println("> create_patient <username> <password>");  //TODO: implement create_patient (Part 1)
-        System.out.println("> create_caregiver <username> <password>");
-        System.out.println("> login_patient <username> <password>");  // TODO: implement login_patient (Part 1)
-        System.out.println("> login_caregiver <username> <password>");
-        System.out.println("> search_caregiver_schedule <date>");  // TODO: implement search_caregiver_schedule (Part 2)
-        System.out.println("> reserve <date> <vaccine>");  // TODO: implement reserve (Part 2)
-        System.out.println("> upload_availability <date>");
-        System.out.println("> cancel <appointment_id>");  // TODO: implement cancel (extra credit)
-        System.out.println("> add_doses <vaccine> <number>");
-        System.out.println("> show_appointments");  // TODO: implement show_appointments (Part 2)
-        System.out.println("> logout");  // TODO: implement logout (Part 2)
-        System.out.println("> quit");
-        System.out.println();
+        printGreeting(System.out);
 
         // read input from user
+        Session session = new Session(System.out);
         BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
         while (true) {
             System.out.print("> ");
@@ -52,149 +97,193 @@ public class Scheduler {
             } catch (IOException e) {
                 System.out.println("Please try again!");
             }
-            // split the user input by spaces
-            String[] tokens = response.split(" ");
-            // check if input exists
-            if (tokens.length == 0) {
-                System.out.println("Please try again!");
-                continue;
+            if (response == null || !execute(session, response)) {
+                break;
             }
-            // determine which operation to perform
-            String operation = tokens[0];
-            if (operation.equals("create_patient")) {
-                createPatient(tokens);
-            } else if (operation.equals("create_caregiver")) {
-                createCaregiver(tokens);
-            } else if (operation.equals("login_patient")) {
-                loginPatient(tokens);
-            } else if (operation.equals("login_caregiver")) {
-                loginCaregiver(tokens);
-            } else if (operation.equals("search_caregiver_schedule")) {
-                searchCaregiverSchedule(tokens);
-            } else if (operation.equals("reserve")) {
-                reserve(tokens);
-            } else if (operation.equals("upload_availability")) {
-                uploadAvailability(tokens);
-            } else if (operation.equals("cancel")) {
-                cancel(tokens);
-            } else if (operation.equals("add_doses")) {
-                addDoses(tokens);
-            } else if (operation.equals("show_appointments")) {
-                showAppointments(tokens);
-            } else if (operation.equals("logout")) {
-                logout(tokens);
-            } else if (operation.equals("quit")) {
-                System.out.println("Bye!");
-                return;
-            } else {
-                System.out.println("Invalid operation name!");
+        }
+        VaccineInventory.getInstance().shutdown();
+        ConnectionManager.getInstance().shutdown();
+    }
+
+    public static void printGreeting(PrintStream out) {
+        out.println();
+        out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
+        out.println("*** Please enter one of the following commands ***");
+        out.println("> create_patient <username> <password>");  //TODO: implement create_patient (Part 1)
+        out.println("> create_caregiver <username> <password>");
+        out.println("> login_patient <username> <password>");  // TODO: implement login_patient (Part 1)
+        out.println("> login_caregiver <username> <password>");
+        out.println("> resume <session_token>");
+        out.println("> search_caregiver_schedule <date>");  // TODO: implement search_caregiver_schedule (Part 2)
+        out.println("> reserve <date> <vaccine>");  // TODO: implement reserve (Part 2)
+        out.println("> reserve_earliest <from_date> <vaccine> [max_days]");
+        out.println("> upload_availability <date>");
+        out.println("> upload_availability_range <start_date> <end_date> [weekdays, e.g. mon,wed,fri]");
+        out.println("> cancel <appointment_id>");  // TODO: implement cancel (extra credit)
+        out.println("> cancel_day <date>");
+        out.println("> add_doses <vaccine> <number>");
+        out.println("> show_appointments [after_id] [limit] [start_date] [end_date]");  // TODO: implement show_appointments (Part 2)
+        out.println("> logout");  // TODO: implement logout (Part 2)
+        out.println("> metrics");
+        out.println("> quit");
+        for (String usage : EXTRA_USAGES) {
+            out.println("> " + usage);
+        }
+        out.println();
+    }
+
+    /**
+     * Adds a command, or replaces the one with the same name. Meant to be called at startup,
+     * before sessions run commands; the usage line, if any, is added to the greeting.
+     */
+    public static void registerCommand(String name, String usage, Command command) {
+        COMMANDS.put(name, command);
+        if (usage != null) {
+            EXTRA_USAGES.add(usage);
+        }
+    }
+
+    /**
+     * Runs one command line on behalf of a session and prints the result to the session's output.
+     * Safe to call from many threads at once as long as each uses its own session. Returns false
+     * once the session asked to quit.
+     */
+    public static boolean execute(Session session, String response) {
+        long start = Metrics.start();
+        // split the user input on whitespace
+        String[] tokens = Tokenizer.split(response);
+        // check if input exists
+        if (tokens.length == 0) {
+            session.println("Please try again!");
+            return true;
+        }
+        // determine which operation to perform
+        String operation = tokens[0];
+        Command command = COMMANDS.get(operation);
+        if (command == null) {
+            session.println("Invalid operation name!");
+            // keep made-up operation names from growing the metrics
+            operation = "invalid";
+        } else {
+            try {
+                command.run(session, tokens);
+            } catch (RuntimeException e) {
+                // a bug or bad input in one command must not end the session or a batch script
+                session.println("Please try again!");
+                Metrics.recordError(operation, e);
             }
         }
+        Metrics.recordCommand(operation, start);
+        return !session.hasQuit();
     }
 
-    private static void createPatient(String[] tokens) {
+    private static void createPatient(Session session, String[] tokens) {
         // TODO: Part 1
         if (tokens.length != 3) {
-            System.out.println("Failed to create user.");
+            session.println("Failed to create user.");
             return;
         }
         String username = tokens[1];
         String password = tokens[2];
         // check 2: check if the username has been taken already
-        if (usernameExistsPatient(username)) {
-            System.out.println("Username taken, try again!");
+        if (usernameExistsPatient(session, username)) {
+            session.println("Username taken, try again!");
             return;
         }
         byte[] salt = Util.generateSalt();
         byte[] hash = Util.generateHash(password, salt);
-        // create the caregiver
+        // create the patient
         try {
-            currentPatient = new Patient.PatientBuilder(username, salt, hash).build();
-            // save to caregiver information to our database
-            currentPatient.saveToDB();
-            System.out.println("Created user " + username);
+            Patient patient = new Patient.PatientBuilder(username, salt, hash).build();
+            // save to patient information to our database
+            patient.saveToDB();
+            markTaken(UsernameCache.PATIENTS, username);
+            session.setCurrentPatient(patient);
+            session.println("Created user " + username);
         } catch (SQLException e) {
-            System.out.println("Failed to create user.");
-            e.printStackTrace();
+            // the primary key has the final say on whether the name was free
+            if (e.getSQLState() != null && e.getSQLState().startsWith("23")) {
+                markTaken(UsernameCache.PATIENTS, username);
+                session.println("Username taken, try again!");
+                return;
+            }
+            session.println("Failed to create user.");
+            Metrics.recordError("create_patient", e);
         }
     }
 
-    private static boolean usernameExistsPatient(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Patients WHERE Username = ?";
+    private static boolean usernameExistsPatient(Session session, String username) {
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return UsernameCache.PATIENTS.isTaken(username);
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
-            e.printStackTrace();
-        } finally {
-            cm.closeConnection();
+            session.println("Error occurred when checking username");
+            Metrics.recordError("username_exists_patient", e);
         }
         return true;
     }
 
-    private static void createCaregiver(String[] tokens) {
+    private static void createCaregiver(Session session, String[] tokens) {
         // create_caregiver <username> <password>
         // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Failed to create user.");
+            session.println("Failed to create user.");
             return;
         }
         String username = tokens[1];
         String password = tokens[2];
         // check 2: check if the username has been taken already
-        if (usernameExistsCaregiver(username)) {
-            System.out.println("Username taken, try again!");
+        if (usernameExistsCaregiver(session, username)) {
+            session.println("Username taken, try again!");
             return;
         }
         byte[] salt = Util.generateSalt();
         byte[] hash = Util.generateHash(password, salt);
         // create the caregiver
         try {
-            currentCaregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build();
+            Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build();
             // save to caregiver information to our database
-            currentCaregiver.saveToDB();
-            System.out.println("Created user " + username);
+            caregiver.saveToDB();
+            markTaken(UsernameCache.CAREGIVERS, username);
+            session.setCurrentCaregiver(caregiver);
+            session.println("Created user " + username);
         } catch (SQLException e) {
-            System.out.println("Failed to create user.");
-            e.printStackTrace();
+            // the primary key has the final say on whether the name was free
+            if (e.getSQLState() != null && e.getSQLState().startsWith("23")) {
+                markTaken(UsernameCache.CAREGIVERS, username);
+                session.println("Username taken, try again!");
+                return;
+            }
+            session.println("Failed to create user.");
+            Metrics.recordError("create_caregiver", e);
         }
     }
 
-    private static boolean usernameExistsCaregiver(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Caregivers WHERE Username = ?";
+    private static boolean usernameExistsCaregiver(Session session, String username) {
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return UsernameCache.CAREGIVERS.isTaken(username);
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
-            e.printStackTrace();
-        } finally {
-            cm.closeConnection();
+            session.println("Error occurred when checking username");
+            Metrics.recordError("username_exists_caregiver", e);
         }
         return true;
     }
 
-    private static void loginPatient(String[] tokens) {
+    private static void markTaken(UsernameCache cache, String username) {
+        try {
+            cache.added(username);
+        } catch (SQLException e) {
+            Metrics.recordError("username_cache", e);
+        }
+    }
+
+    private static void loginPatient(Session session, String[] tokens) {
         // TODO: Part 1
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in.");
+        if (session.getCurrentCaregiver() != null || session.getCurrentPatient() != null) {
+            session.println("User already logged in.");
             return;
         }
         if (tokens.length != 3) {
-            System.out.println("Login failed.");
+            session.println("Login failed.");
             return;
         }
         String username = tokens[1];
@@ -204,27 +293,28 @@ public class Scheduler {
         try {
             patient = new Patient.PatientGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Login failed.");
-            e.printStackTrace();
+            session.println("Login failed.");
+            Metrics.recordError("login_patient", e);
         }
         if (patient == null) {
-            System.out.println("Login failed.");
+            session.println("Login failed.");
         } else {
-            System.out.println("Logged in as: " + username);
-            currentPatient = patient;
+            session.println("Logged in as: " + username);
+            session.setCurrentPatient(patient);
+            printToken(session, SessionTokens.getInstance().issue(patient));
         }
     }
 
-    private static void loginCaregiver(String[] tokens) {
+    private static void loginCaregiver(Session session, String[] tokens) {
         // login_caregiver <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in.");
+        if (session.getCurrentCaregiver() != null || session.getCurrentPatient() != null) {
+            session.println("User already logged in.");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Login failed.");
+            session.println("Login failed.");
             return;
         }
         String username = tokens[1];
@@ -234,320 +324,464 @@ public class Scheduler {
         try {
             caregiver = new Caregiver.CaregiverGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Login failed.");
-            e.printStackTrace();
+            session.println("Login failed.");
+            Metrics.recordError("login_caregiver", e);
         }
         // check if the login was successful
         if (caregiver == null) {
-            System.out.println("Login failed.");
+            session.println("Login failed.");
         } else {
-            System.out.println("Logged in as: " + username);
-            currentCaregiver = caregiver;
+            session.println("Logged in as: " + username);
+            session.setCurrentCaregiver(caregiver);
+            printToken(session, SessionTokens.getInstance().issue(caregiver));
+        }
+    }
+
+    private static void printToken(Session session, String token) {
+        if (token != null) {
+            session.setToken(token);
+            session.println("Session token: " + token);
+        }
+    }
+
+    private static void resume(Session session, String[] tokens) {
+        // resume <session_token>
+        // picks up a login from an earlier connection without checking the password again
+        if (session.getCurrentCaregiver() != null || session.getCurrentPatient() != null) {
+            session.println("User already logged in.");
+            return;
+        }
+        if (tokens.length != 2) {
+            session.println("Login failed.");
+            return;
         }
+        SessionTokens.Login login = SessionTokens.getInstance().lookup(tokens[1]);
+        if (login == null) {
+            session.println("Login failed.");
+            return;
+        }
+        session.setCurrentCaregiver(login.getCaregiver());
+        session.setCurrentPatient(login.getPatient());
+        session.setToken(tokens[1]);
+        session.println("Logged in as: " + (login.getCaregiver() != null ?
+                login.getCaregiver().getUsername() : login.getPatient().getUsername()));
     }
 
-    private static void searchCaregiverSchedule(String[] tokens) {
+    private static void searchCaregiverSchedule(Session session, String[] tokens) {
         // TODO: Part 2
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
+        if (session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
+            session.println("Please login first!");
             return;
         }
         if (tokens.length != 2) {
-            System.out.println("Please try again!");
+            session.println("Please try again!");
             return;
         }
         String date = tokens[1];
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
         try {
             Date d = Date.valueOf(date);
-            PreparedStatement statement = con.prepareStatement("SELECT A.Username, V.Name, V.Doses " +
-                    "FROM Availabilities as A, Vaccines as V WHERE A.Time = '" + d +
-                    "' ORDER BY A.username");
-            ResultSet resultSet = statement.executeQuery();
-            while (resultSet.next()) {
-                System.out.println("Caregiver name: " + resultSet.getString(1) + " Vaccine name: " +
-                        resultSet.getString(2) + " Vaccine doses: " + resultSet.getInt(3));
+            // caregivers and vaccines are unrelated, so list them separately instead of printing
+            // every caregiver/vaccine pair
+            List<String> caregivers = availableCaregivers(d);
+            if (caregivers.isEmpty()) {
+                session.println("No Caregiver is available!");
+                return;
+            }
+            for (String caregiver : caregivers) {
+                session.println("Caregiver name: " + caregiver);
             }
+            for (Map.Entry<String, Integer> vaccine : VaccineInventory.getInstance().snapshot().entrySet()) {
+                session.println("Vaccine name: " + vaccine.getKey() + " Vaccine doses: " + vaccine.getValue());
+            }
+        } catch (IllegalArgumentException e) {
+            session.println("Please enter a valid date!");
         } catch (SQLException e) {
-            System.out.println("Please try again!");
-            e.printStackTrace();
+            session.println("Please try again!");
+            Metrics.recordError("search_caregiver_schedule", e);
+        }
+    }
+
+    // from the in-process index when it is on, otherwise from the database; ordered by username
+    private static List<String> availableCaregivers(Date d) throws SQLException {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        if (index.isEnabled()) {
+            return index.getCaregivers(d);
+        }
+        List<String> caregivers = new ArrayList<>();
+        ConnectionManager cm = ConnectionManager.getInstance();
+        Connection con = cm.borrowConnection();
+        try {
+            PreparedStatement statement = cm.prepareStatement(con, Query.FIND_AVAILABLE_CAREGIVERS);
+            statement.setDate(1, d);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    caregivers.add(resultSet.getString(1));
+                }
+            }
         } finally {
-            cm.closeConnection();
+            cm.returnConnection(con);
         }
+        return caregivers;
     }
 
-    private static void reserve(String[] tokens) {
+    private static void reserve(Session session, String[] tokens) {
         // TODO: Part 2
-        if (currentCaregiver != null) {
-            System.out.println("Please login as a patient!");
+        if (session.getCurrentCaregiver() != null) {
+            session.println("Please login as a patient!");
             return;
         }
-        if (currentPatient == null) {
-            System.out.println("Please login first!");
+        if (session.getCurrentPatient() == null) {
+            session.println("Please login first!");
             return;
         }
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
+            session.println("Please try again!");
             return;
         }
         String date = tokens[1];
         String vaccine = tokens[2];
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        Date d = Date.valueOf(date);
-        String caregiverName = null;
-        int doses = 0;
-        int appointmentID = 0;
         try {
-            PreparedStatement check = con.prepareStatement("SELECT A.Username, V.Doses FROM " +
-                    "Availabilities AS A, Vaccines AS V WHERE A.Time = '" + d + "' AND V.Name = '" +
-                    vaccine + "' ORDER BY A.Username DESC");
-            ResultSet possibilities = check.executeQuery();
-            while (possibilities.next()) {
-                caregiverName = possibilities.getString(1);
-                doses = possibilities.getInt(2);
+            Date d = Date.valueOf(date);
+            Appointment.AppointmentReserver reserver =
+                    new Appointment.AppointmentReserver(session.getCurrentPatient().getUsername(), d, vaccine);
+            Appointment appointment = reserver.reserve();
+            switch (reserver.getStatus()) {
+                case RESERVED:
+                    session.println("Appointment ID: {" + appointment.getAppointmentId() +
+                            "}, Caregiver username: {" + appointment.getCaregiverUsername() + "}");
+                    break;
+                case NO_CAREGIVER:
+                    session.println("No Caregiver is available!");
+                    break;
+                case NOT_ENOUGH_DOSES:
+                    session.println("Not enough available doses!");
+                    break;
+                default:
+                    session.println("Please try again!");
             }
+        } catch (IllegalArgumentException e) {
+            session.println("Please enter a valid date!");
         } catch (SQLException e) {
-            System.out.println("Please try again!");
-            e.printStackTrace();
+            session.println("Please try again!");
+            Metrics.recordError("reserve", e);
+        }
+    }
+
+    private static void reserveEarliest(Session session, String[] tokens) {
+        // reserve_earliest <from_date> <vaccine> [max_days]
+        if (session.getCurrentCaregiver() != null) {
+            session.println("Please login as a patient!");
             return;
         }
-        if (caregiverName == null) {
-            System.out.println("No Caregiver is available!");
+        if (session.getCurrentPatient() == null) {
+            session.println("Please login first!");
             return;
         }
-        if (doses <= 0) {
-            System.out.println("Not enough available doses!");
+        if (tokens.length != 3 && tokens.length != 4) {
+            session.println("Please try again!");
+            return;
+        }
+        Date from;
+        int maxDays;
+        try {
+            from = Date.valueOf(tokens[1]);
+        } catch (IllegalArgumentException e) {
+            session.println("Please enter a valid date!");
             return;
         }
         try {
-            PreparedStatement newID = con.prepareStatement("SELECT A.Appointment_id FROM " +
-                    "Appointments AS A ORDER BY A.Appointment_ID");
-            ResultSet appointmentList = newID.executeQuery();
-            while (appointmentList.next() && appointmentID == appointmentList.getInt(1)) {
-                appointmentID += 1;
+            maxDays = tokens.length == 4 ? Integer.parseInt(tokens[3]) : Config.getInt("ReserveEarliestMaxDays", 30);
+        } catch (NumberFormatException e) {
+            maxDays = -1;
+        }
+        // the search window is bounded like an uploaded availability range
+        if (maxDays <= 0 || maxDays > Config.getInt("MaxAvailabilityRangeDays", 366)) {
+            session.println("Please try again!");
+            return;
+        }
+        String vaccine = tokens[2];
+        try {
+            Date until = Date.valueOf(from.toLocalDate().plusDays(maxDays));
+            Appointment.AppointmentReserver reserver = new Appointment.AppointmentReserver(
+                    session.getCurrentPatient().getUsername(), from, until, vaccine);
+            Appointment appointment = reserver.reserve();
+            switch (reserver.getStatus()) {
+                case RESERVED:
+                    session.println("Appointment ID: {" + appointment.getAppointmentId() +
+                            "}, Caregiver username: {" + appointment.getCaregiverUsername() +
+                            "}, Date: {" + appointment.getTime() + "}");
+                    break;
+                case NO_CAREGIVER:
+                    session.println("No Caregiver is available!");
+                    break;
+                case NOT_ENOUGH_DOSES:
+                    session.println("Not enough available doses!");
+                    break;
+                default:
+                    session.println("Please try again!");
             }
-            PreparedStatement removal = con.prepareStatement("DELETE FROM Availabilities " +
-                "WHERE Time = '" + d + "' AND Username = '" + caregiverName + "'");
-            removal.executeUpdate();
-            PreparedStatement schedule = con.prepareStatement("INSERT INTO Appointments VALUES " +
-                    "(" + appointmentID + ", '" + caregiverName + "', '" + vaccine + "', '" +
-                    d + "', '" + currentPatient.getUsername() + "')");
-            schedule.executeUpdate();
-            PreparedStatement update = con.prepareStatement("UPDATE Vaccines SET Doses = (DOSES " +
-                    "- 1) WHERE Name = '" + vaccine + "'");
-            update.executeUpdate();
-            System.out.println("Appointment ID: {" + appointmentID + "}, Caregiver username: {" +
-                    caregiverName + "}");
         } catch (SQLException e) {
-            System.out.println("Please try again!");
-            e.printStackTrace();
-            return;
+            session.println("Please try again!");
+            Metrics.recordError("reserve_earliest", e);
         }
     }
 
-    private static void uploadAvailability(String[] tokens) {
+    private static void uploadAvailability(Session session, String[] tokens) {
         // upload_availability <date>
         // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+        if (session.getCurrentCaregiver() == null) {
+            session.println("Please login as a caregiver first!");
             return;
         }
         // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
         if (tokens.length != 2) {
-            System.out.println("Please try again!");
+            session.println("Please try again!");
             return;
         }
         String date = tokens[1];
         try {
             Date d = Date.valueOf(date);
-            currentCaregiver.uploadAvailability(d);
-            System.out.println("Availability uploaded!");
+            session.getCurrentCaregiver().uploadAvailability(d);
+            session.println("Availability uploaded!");
         } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
+            session.println("Please enter a valid date!");
         } catch (SQLException e) {
-            System.out.println("Error occurred when uploading availability");
-            e.printStackTrace();
+            session.println("Error occurred when uploading availability");
+            Metrics.recordError("upload_availability", e);
         }
     }
 
-    private static void cancel(String[] tokens) {
-        // TODO: Extra credit
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
+    private static void uploadAvailabilityRange(Session session, String[] tokens) {
+        // upload_availability_range <start_date> <end_date> [weekdays]
+        if (session.getCurrentCaregiver() == null) {
+            session.println("Please login as a caregiver first!");
             return;
         }
-        if (tokens.length != 2) {
-            System.out.println("Please try again!");
+        if (tokens.length != 3 && tokens.length != 4) {
+            session.println("Please try again!");
             return;
         }
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        String appointmentID = tokens[1];
         try {
-            PreparedStatement check = con.prepareStatement("SELECT Caregiver_username, " +
-                    "Patient_username FROM Appointments WHERE Appointment_id = " + appointmentID);
-            ResultSet names = check.executeQuery();
-            String caregiver = null;
-            String patient = null;
-            while (names.next()) {
-                caregiver = names.getString(1);
-                patient = names.getString(2);
-            }
-            if (currentCaregiver != null) {
-                if (!(caregiver.equals(currentCaregiver.getUsername()))) {
-                    System.out.println("Please try again!");
-                    return;
-                }
-            }
-            if (currentPatient != null) {
-                if (!(patient.equals(currentPatient.getUsername()))) {
-                    System.out.println("Please try again!");
-                    return;
+            Date start = Date.valueOf(tokens[1]);
+            Date end = Date.valueOf(tokens[2]);
+            Set<DayOfWeek> weekdays = tokens.length == 4 ? parseWeekdays(tokens[3]) : EnumSet.allOf(DayOfWeek.class);
+            int added = session.getCurrentCaregiver().uploadAvailability(start, end, weekdays);
+            session.println("Availability uploaded for " + added + " days!");
+        } catch (IllegalArgumentException e) {
+            session.println("Please enter a valid date range!");
+        } catch (SQLException e) {
+            session.println("Error occurred when uploading availability");
+            Metrics.recordError("upload_availability_range", e);
+        }
+    }
+
+    // comma-separated day names such as mon,wed,fri
+    private static Set<DayOfWeek> parseWeekdays(String list) {
+        Set<DayOfWeek> weekdays = EnumSet.noneOf(DayOfWeek.class);
+        for (String name : list.split(",")) {
+            DayOfWeek match = null;
+            for (DayOfWeek day : DayOfWeek.values()) {
+                if (name.length() >= 3 && day.name().startsWith(name.toUpperCase())) {
+                    match = day;
                 }
             }
-            Date date = null;
-            String vaccine = null;
-            PreparedStatement statement = con.prepareStatement("SELECT Vaccine_name, Time FROM " +
-                    "Appointments WHERE Appointment_id = " + appointmentID);
-            ResultSet resultSet = statement.executeQuery();
-            while (resultSet.next()) {
-                vaccine = resultSet.getString(1);
-                date = resultSet.getDate(2);
+            if (match == null) {
+                throw new IllegalArgumentException("Unknown weekday: " + name);
             }
-            if (caregiver == null || vaccine == null || date == null || patient == null) {
-                System.out.println("Please try again!");
+            weekdays.add(match);
+        }
+        return weekdays;
+    }
+
+    private static void cancel(Session session, String[] tokens) {
+        // TODO: Extra credit
+        if (session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
+            session.println("Please login first!");
+            return;
+        }
+        if (tokens.length != 2) {
+            session.println("Please try again!");
+            return;
+        }
+        try {
+            int appointmentID = Integer.parseInt(tokens[1]);
+            String caregiver = session.getCurrentCaregiver() != null ? session.getCurrentCaregiver().getUsername() : null;
+            String patient = session.getCurrentPatient() != null ? session.getCurrentPatient().getUsername() : null;
+            if (Appointment.cancel(appointmentID, caregiver, patient) == null) {
+                session.println("Please try again!");
                 return;
             }
-            PreparedStatement removal = con.prepareStatement("DELETE FROM Appointments WHERE " +
-                    "Appointment_id = " + appointmentID);
-            removal.executeUpdate();
-            PreparedStatement updateOne = con.prepareStatement("INSERT INTO Availabilities VALUES" +
-                    " ('" + date + "', '" + caregiver + "')");
-            updateOne.executeUpdate();
-            PreparedStatement updateTwo = con.prepareStatement("UPDATE Vaccines SET Doses = " +
-                    "(DOSES + 1) WHERE Name = '" + vaccine + "'");
-            updateTwo.executeUpdate();
-            System.out.println("Appointment successfully canceled!");
+            session.println("Appointment successfully canceled!");
+        } catch (NumberFormatException e) {
+            session.println("Please try again!");
         } catch (SQLException e) {
-            System.out.println("Please try again!");
-            e.printStackTrace();
+            session.println("Please try again!");
+            Metrics.recordError("cancel", e);
+        }
+    }
+
+    private static void cancelDay(Session session, String[] tokens) {
+        // cancel_day <date>
+        if (session.getCurrentCaregiver() == null) {
+            session.println("Please login as a caregiver first!");
             return;
-        } finally {
-            cm.closeConnection();
+        }
+        if (tokens.length != 2) {
+            session.println("Please try again!");
+            return;
+        }
+        try {
+            Date d = Date.valueOf(tokens[1]);
+            int canceled = Appointment.cancelDay(session.getCurrentCaregiver().getUsername(), d);
+            session.println("Canceled " + canceled + " appointments on " + d + "!");
+        } catch (IllegalArgumentException e) {
+            session.println("Please enter a valid date!");
+        } catch (SQLException e) {
+            session.println("Please try again!");
+            Metrics.recordError("cancel_day", e);
         }
     }
 
-    private static void addDoses(String[] tokens) {
+    private static void addDoses(Session session, String[] tokens) {
         // add_doses <vaccine> <number>
         // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+        if (session.getCurrentCaregiver() == null) {
+            session.println("Please login as a caregiver first!");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
+            session.println("Please try again!");
             return;
         }
         String vaccineName = tokens[1];
-        int doses = Integer.parseInt(tokens[2]);
+        int doses;
+        try {
+            doses = Integer.parseInt(tokens[2]);
+        } catch (NumberFormatException e) {
+            doses = 0;
+        }
+        // the same rule as Vaccine.increaseAvailableDoses, checked before touching any vaccine
+        if (doses <= 0) {
+            session.println("Please try again!");
+            return;
+        }
         Vaccine vaccine = null;
         try {
             vaccine = new Vaccine.VaccineGetter(vaccineName).get();
         } catch (SQLException e) {
-            System.out.println("Error occurred when adding doses");
-            e.printStackTrace();
+            session.println("Error occurred when adding doses");
+            Metrics.recordError("add_doses", e);
         }
         // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
         //          table
         if (vaccine == null) {
             try {
-                vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
-                vaccine.saveToDB();
+                // the inventory inserts the vaccine, or adds to it if a concurrent add_doses just did
+                VaccineInventory.getInstance().addDoses(vaccineName, doses);
             } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
+                session.println("Error occurred when adding doses");
+                Metrics.recordError("add_doses", e);
             }
         } else {
             // if the vaccine is not null, meaning that the vaccine already exists in our table
             try {
                 vaccine.increaseAvailableDoses(doses);
             } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
+                session.println("Error occurred when adding doses");
+                Metrics.recordError("add_doses", e);
             }
         }
-        System.out.println("Doses updated!");
+        session.println("Doses updated!");
     }
 
-    private static void showAppointments(String[] tokens) {
-        // TODO: Part 2
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
+    private static void showAppointments(Session session, String[] tokens) {
+        // show_appointments [after_id] [limit] [start_date] [end_date]
+        if (session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
+            session.println("Please login first!");
             return;
         }
-        if (tokens.length != 1) {
-            System.out.println("Please try again!");
+        if (tokens.length > 5) {
+            session.println("Please try again!");
             return;
         }
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        if (currentCaregiver != null) {
-            try {
-                PreparedStatement statement = con.prepareStatement("SELECT A.Appointment_id, " +
-                        "A.Vaccine_name, A.Time, A.Patient_username FROM Appointments AS A WHERE " +
-                        "A.Caregiver_username = '" +currentCaregiver.getUsername() + "' ORDER BY " +
-                        "A.Appointment_ID");
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    System.out.println("Appointment ID: " + resultSet.getLong(1) + " Vaccine name: "
-                    + resultSet.getString(2) + " Date: " + resultSet.getDate(3) +
-                    " Patient name: " + resultSet.getString(4));
-                }
-            } catch (SQLException e){
-                System.out.println("Please try again!");
-                e.printStackTrace();
-            } finally {
-                cm.closeConnection();
-            }
+        // one page of appointments in id order, so memory and latency do not grow with history;
+        // the next page starts after the last id shown
+        int afterId;
+        int limit;
+        Date startDate;
+        Date endDate;
+        try {
+            afterId = tokens.length > 1 ? Integer.parseInt(tokens[1]) : -1;
+            limit = tokens.length > 2 ? Integer.parseInt(tokens[2]) : Config.getInt("AppointmentPageSize", 100);
+            startDate = tokens.length > 3 ? Date.valueOf(tokens[3]) : Date.valueOf("0001-01-01");
+            endDate = tokens.length > 4 ? Date.valueOf(tokens[4]) : Date.valueOf("9999-12-31");
+        } catch (IllegalArgumentException e) {
+            session.println("Please try again!");
             return;
         }
-        if (currentPatient != null) {
-            try {
-                PreparedStatement statement = con.prepareStatement("SELECT A.Appointment_id, " +
-                        "A.Vaccine_name, A.Time, A.Caregiver_username FROM Appointments AS A WHERE " +
-                        "A.Patient_username = '" + currentPatient.getUsername() + "' ORDER BY " +
-                        "A.Appointment_ID");
-                ResultSet resultSet = statement.executeQuery();
+        if (limit <= 0 || limit > Config.getInt("MaxAppointmentPageSize", 1000)) {
+            session.println("Please enter a valid page size!");
+            return;
+        }
+
+        boolean caregiver = session.getCurrentCaregiver() != null;
+        String username = caregiver ? session.getCurrentCaregiver().getUsername()
+                : session.getCurrentPatient().getUsername();
+        ConnectionManager cm = ConnectionManager.getInstance();
+        Connection con = null;
+        try {
+            con = cm.borrowConnection();
+            PreparedStatement statement = cm.prepareStatement(con,
+                    caregiver ? Query.CAREGIVER_APPOINTMENTS : Query.PATIENT_APPOINTMENTS);
+            statement.setString(1, username);
+            statement.setInt(2, afterId);
+            statement.setDate(3, startDate);
+            statement.setDate(4, endDate);
+            // one extra row tells whether there is another page
+            statement.setInt(5, limit + 1);
+            statement.setFetchSize(Math.min(limit + 1, Config.getInt("FetchSize", 1000)));
+            int shown = 0;
+            long lastId = afterId;
+            try (ResultSet resultSet = statement.executeQuery()) {
                 while (resultSet.next()) {
-                    System.out.println("Appointment ID: " + resultSet.getLong(1) + " Vaccine name: "
+                    if (shown == limit) {
+                        String next = "show_appointments " + lastId + " " + limit;
+                        if (tokens.length > 3) {
+                            next += " " + String.join(" ", Arrays.copyOfRange(tokens, 3, tokens.length));
+                        }
+                        session.println("More appointments: " + next);
+                        break;
+                    }
+                    lastId = resultSet.getLong(1);
+                    session.println("Appointment ID: " + lastId + " Vaccine name: "
                             + resultSet.getString(2) + " Date: " + resultSet.getDate(3) +
-                            " Caregiver name: " + resultSet.getString(4));
+                            (caregiver ? " Patient name: " : " Caregiver name: ") + resultSet.getString(4));
+                    shown++;
                 }
-            } catch (SQLException e){
-                System.out.println("Please try again!");
-                e.printStackTrace();
-            } finally {
-                cm.closeConnection();
             }
-            return;
+        } catch (SQLException e) {
+            session.println("Please try again!");
+            Metrics.recordError("show_appointments", e);
+        } finally {
+            cm.returnConnection(con);
         }
     }
 
-    private static void logout(String[] tokens) {
+    private static void logout(Session session, String[] tokens) {
         // TODO: Part 2
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first.");
+        if (session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
+            session.println("Please login first.");
             return;
         }
         if (tokens.length != 1) {
-            System.out.println("Please try again!");
+            session.println("Please try again!");
             return;
         }
-        currentCaregiver = null;
-        currentPatient = null;
-        System.out.println("Successfully logged out!");
+        session.setCurrentCaregiver(null);
+        session.setCurrentPatient(null);
+        SessionTokens.getInstance().revoke(session.getToken());
+        session.setToken(null);
+        session.println("Successfully logged out!");
     }
 }
\ No newline at end of file
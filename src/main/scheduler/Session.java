@@ -0,0 +1,67 @@
+package scheduler;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+import java.io.PrintStream;
+
+/**
+ * The state of one user's conversation with the scheduler: who is logged in and where replies go.
+ * The interactive console has a single session; the network server has one per connection.
+ */
+public class Session {
+
+    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
+    //       since only one user can be logged-in per session at a time
+    private Caregiver currentCaregiver = null;
+    private Patient currentPatient = null;
+    private final PrintStream out;
+    private boolean quit = false;
+    // the session token issued at login, revoked at logout
+    private String token = null;
+
+    public Session(PrintStream out) {
+        this.out = out;
+    }
+
+    public Caregiver getCurrentCaregiver() {
+        return currentCaregiver;
+    }
+
+    public void setCurrentCaregiver(Caregiver currentCaregiver) {
+        this.currentCaregiver = currentCaregiver;
+    }
+
+    public Patient getCurrentPatient() {
+        return currentPatient;
+    }
+
+    public void setCurrentPatient(Patient currentPatient) {
+        this.currentPatient = currentPatient;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public void setToken(String token) {
+        this.token = token;
+    }
+
+    public PrintStream getOut() {
+        return out;
+    }
+
+    public void println(String line) {
+        out.println(line);
+    }
+
+    // Called by the quit command; the session reads no more commands afterwards.
+    public void quit() {
+        quit = true;
+    }
+
+    public boolean hasQuit() {
+        return quit;
+    }
+}
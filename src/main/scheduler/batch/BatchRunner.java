@@ -0,0 +1,216 @@
+package scheduler.batch;
+
+import scheduler.Scheduler;
+import scheduler.Session;
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.VaccineInventory;
+import scheduler.db.ConnectionManager;
+import scheduler.model.AssignmentPolicy;
+import scheduler.model.Caregiver;
+import scheduler.util.Tokenizer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Runs a script of scheduler commands non-interactively, one command per line, as a single session.
+ * Blank lines and lines starting with # are skipped.
+ *
+ * Consecutive commands of the same kind are grouped: a run of upload_availability lines becomes
+ * JDBC batches in one transaction, and a run of add_doses lines becomes one batch of increments and
+ * inserts in one transaction. If a group cannot be applied as a whole, its commands are run
+ * one by one instead so each still gets an accurate result.
+ *
+ * Every command's output is reported with its line number, followed by throughput statistics.
+ *
+ * Usage: BatchRunner [file]   (reads standard input without a file)
+ */
+public class BatchRunner {
+
+    private static final String UPLOAD_AVAILABILITY = "upload_availability";
+    private static final String ADD_DOSES = "add_doses";
+
+    private final PrintStream report;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final Session session = new Session(new PrintStream(buffer, true, StandardCharsets.UTF_8));
+
+    // the current run of same-kind commands, not yet executed
+    private String groupOperation = null;
+    private final List<Integer> groupLineNumbers = new ArrayList<>();
+    private final List<String[]> groupTokens = new ArrayList<>();
+
+    // statistics
+    private final Map<String, Integer> commandsByOperation = new TreeMap<>();
+    private int commands = 0;
+    private int batches = 0;
+    private int batchedCommands = 0;
+    private int fallbacks = 0;
+
+    public BatchRunner(PrintStream report) {
+        this.report = report;
+    }
+
+    public static void main(String[] args) throws IOException {
+        // fail on a bad AssignmentPolicy setting now rather than at the first reservation
+        AssignmentPolicy.fromConfig();
+        AvailabilityIndex.getInstance().preload();
+        InputStream input = args.length > 0 ? new FileInputStream(args[0]) : System.in;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            new BatchRunner(System.out).run(in);
+        } finally {
+            VaccineInventory.getInstance().shutdown();
+            ConnectionManager.getInstance().shutdown();
+        }
+    }
+
+    public void run(BufferedReader in) throws IOException {
+        long start = System.nanoTime();
+        String line;
+        int lineNumber = 0;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            String command = line.trim();
+            if (command.isEmpty() || command.startsWith("#")) {
+                continue;
+            }
+            String[] tokens = Tokenizer.split(command);
+            String operation = tokens[0];
+            commands++;
+            commandsByOperation.merge(operation, 1, Integer::sum);
+
+            if (!operation.equals(groupOperation)) {
+                runGroup();
+            }
+            if (operation.equals(UPLOAD_AVAILABILITY) || operation.equals(ADD_DOSES)) {
+                groupOperation = operation;
+                groupLineNumbers.add(lineNumber);
+                groupTokens.add(tokens);
+                continue;
+            }
+            if (!runCommand(lineNumber, command)) {
+                break;
+            }
+        }
+        runGroup();
+        printStatistics(System.nanoTime() - start);
+    }
+
+    private void runGroup() {
+        if (groupOperation == null) {
+            return;
+        }
+        boolean batched = groupOperation.equals(ADD_DOSES) ? addDoses() : uploadAvailabilities();
+        if (batched) {
+            batches++;
+            batchedCommands += groupTokens.size();
+        } else {
+            fallbacks++;
+            for (int i = 0; i < groupTokens.size(); i++) {
+                runCommand(groupLineNumbers.get(i), String.join(" ", groupTokens.get(i)));
+            }
+        }
+        groupOperation = null;
+        groupLineNumbers.clear();
+        groupTokens.clear();
+    }
+
+    // returns false if the group has to be run command by command
+    private boolean uploadAvailabilities() {
+        Caregiver caregiver = session.getCurrentCaregiver();
+        if (caregiver == null || groupTokens.size() == 1) {
+            return false;
+        }
+        List<Date> dates = new ArrayList<>();
+        for (String[] tokens : groupTokens) {
+            if (tokens.length != 2) {
+                return false;
+            }
+            try {
+                dates.add(Date.valueOf(tokens[1]));
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+        try {
+            caregiver.uploadAvailability(dates);
+        } catch (SQLException e) {
+            return false;
+        }
+        for (int i = 0; i < groupTokens.size(); i++) {
+            report(groupLineNumbers.get(i), String.join(" ", groupTokens.get(i)), "Availability uploaded!");
+        }
+        return true;
+    }
+
+    // returns false if the group has to be run command by command
+    private boolean addDoses() {
+        if (session.getCurrentCaregiver() == null || groupTokens.size() == 1) {
+            return false;
+        }
+        // every increment of the group goes out in one batch and one transaction, bypassing the
+        // write-behind inventory, so a background flush can never write part of the group
+        Map<String, Integer> increments = new LinkedHashMap<>();
+        for (String[] tokens : groupTokens) {
+            if (tokens.length != 3) {
+                return false;
+            }
+            int doses;
+            try {
+                doses = Integer.parseInt(tokens[2]);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            // rejected one by one, with the same result as outside a batch
+            if (doses <= 0) {
+                return false;
+            }
+            increments.merge(tokens[1], doses, Math::addExact);
+        }
+        try {
+            VaccineInventory.getInstance().restock(increments);
+        } catch (SQLException | ArithmeticException e) {
+            return false;
+        }
+        for (int i = 0; i < groupTokens.size(); i++) {
+            report(groupLineNumbers.get(i), String.join(" ", groupTokens.get(i)), "Doses updated!");
+        }
+        return true;
+    }
+
+    // returns false once the script asked to quit
+    private boolean runCommand(int lineNumber, String command) {
+        boolean keepGoing = Scheduler.execute(session, command);
+        report(lineNumber, command, buffer.toString(StandardCharsets.UTF_8).trim());
+        buffer.reset();
+        return keepGoing;
+    }
+
+    private void report(int lineNumber, String command, String output) {
+        report.println("#" + lineNumber + " " + command + " -> " + output.replace(System.lineSeparator(), " | "));
+    }
+
+    private void printStatistics(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        report.println();
+        report.println("Commands: " + commands + " in " + String.format("%.3f", seconds) + " s (" +
+                String.format("%.1f", seconds == 0 ? 0 : commands / seconds) + " commands/s)");
+        report.println("Batched: " + batchedCommands + " commands in " + batches + " batches, " +
+                fallbacks + " groups run one by one");
+        for (Map.Entry<String, Integer> e : commandsByOperation.entrySet()) {
+            report.println("  " + e.getKey() + ": " + e.getValue());
+        }
+    }
+}
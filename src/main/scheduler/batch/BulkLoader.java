@@ -0,0 +1,468 @@
+package scheduler.batch;
+
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.VaccineInventory;
+import scheduler.db.ConnectionManager;
+import scheduler.db.Query;
+import scheduler.util.Config;
+import scheduler.util.PasswordHasher;
+import scheduler.util.SaltGenerator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Streams the scheduler tables to and from CSV files, for seeding a database or moving it.
+ *
+ * Imports read the file BatchSize records at a time and write each chunk as one JDBC batch in its
+ * own transaction, so memory use depends on the batch size and not on the file. Patients and
+ * caregivers given as username,password have their passwords hashed on a fork-join pool
+ * (BulkHashThreads threads) while the previous chunk is being written. If a chunk fails, the chunks
+ * before it stay committed and the error names the lines of the failed one.
+ *
+ * Exports stream query results with FetchSize rows per round trip and write the same format the
+ * import reads, with a header line. Patients and caregivers are exported with their salt, hash and
+ * hash parameters (base64 for the binary columns) and imported back as they are. Appointments keep
+ * the ids of an exported file, or get new ones when the file has no id column, and are loaded as
+ * they are, without touching availabilities or doses. A NULL is written as an empty field, and an
+ * empty field is imported as NULL.
+ *
+ * Usage: BulkLoader (import|export) (caregivers|patients|availabilities|vaccines|appointments) <file>
+ */
+public class BulkLoader {
+
+    public enum Table {
+        CAREGIVERS(Query.ADD_CAREGIVER, Query.EXPORT_CAREGIVERS, new String[]{"username", "password"},
+                new int[]{Types.VARCHAR, Types.BINARY, Types.VARBINARY, Types.VARCHAR, Types.INTEGER, Types.INTEGER},
+                "username", "salt", "hash", "hash_algorithm", "hash_iterations", "hash_key_length"),
+        PATIENTS(Query.ADD_PATIENT, Query.EXPORT_PATIENTS, new String[]{"username", "password"},
+                new int[]{Types.VARCHAR, Types.BINARY, Types.VARBINARY, Types.VARCHAR, Types.INTEGER, Types.INTEGER},
+                "username", "salt", "hash", "hash_algorithm", "hash_iterations", "hash_key_length"),
+        AVAILABILITIES(Query.ADD_AVAILABILITY, Query.EXPORT_AVAILABILITIES, null,
+                new int[]{Types.DATE, Types.VARCHAR}, "time", "username"),
+        VACCINES(Query.ADD_VACCINE, Query.EXPORT_VACCINES, null,
+                new int[]{Types.VARCHAR, Types.INTEGER}, "name", "doses"),
+        APPOINTMENTS(Query.IMPORT_APPOINTMENT, Query.EXPORT_APPOINTMENTS,
+                new String[]{"caregiver_username", "vaccine_name", "time", "patient_username"},
+                new int[]{Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.DATE, Types.VARCHAR},
+                "appointment_id", "caregiver_username", "vaccine_name", "time", "patient_username");
+
+        private final Query insert;
+        private final Query export;
+        // the header of the other format an import accepts, if any
+        private final String[] shortHeader;
+        // the SQL type of each column of header, for binding NULLs
+        private final int[] types;
+        private final String[] header;
+
+        Table(Query insert, Query export, String[] shortHeader, int[] types, String... header) {
+            this.insert = insert;
+            this.export = export;
+            this.shortHeader = shortHeader;
+            this.types = types;
+            this.header = header;
+        }
+
+        // rows without leading columns (appointments without ids) bind the last values.length types
+        int typeOf(int column, int columns) {
+            return types[types.length - columns + column];
+        }
+
+        boolean hasPasswords() {
+            return this == CAREGIVERS || this == PATIENTS;
+        }
+
+        // the whole record has to match, so a data row that happens to start like a header is kept
+        boolean isHeader(String[] record) {
+            return matches(record, header) || (shortHeader != null && matches(record, shortHeader));
+        }
+
+        private static boolean matches(String[] record, String[] names) {
+            if (record.length != names.length) {
+                return false;
+            }
+            for (int i = 0; i < names.length; i++) {
+                if (!record[i].trim().equalsIgnoreCase(names[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final PrintStream report;
+    private final int batchSize = Config.getInt("BatchSize", 1000);
+    private final int fetchSize = Config.getInt("FetchSize", 1000);
+    private final int hashThreads = Config.getInt("BulkHashThreads", Runtime.getRuntime().availableProcessors());
+
+    public BulkLoader(PrintStream report) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("BatchSize must be positive!");
+        }
+        this.report = report;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 || !(args[0].equals("import") || args[0].equals("export"))) {
+            System.out.println("Usage: BulkLoader (import|export) " +
+                    "(caregivers|patients|availabilities|vaccines|appointments) <file>");
+            return;
+        }
+        Table table;
+        try {
+            table = Table.valueOf(args[1].toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown table: " + args[1]);
+            return;
+        }
+        BulkLoader loader = new BulkLoader(System.out);
+        try {
+            if (args[0].equals("import")) {
+                try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                        new FileInputStream(args[2]), StandardCharsets.UTF_8))) {
+                    loader.importCsv(table, in);
+                }
+            } else {
+                try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(args[2]), StandardCharsets.UTF_8))) {
+                    loader.exportCsv(table, out);
+                }
+            }
+        } catch (SQLException | IllegalArgumentException e) {
+            System.out.println("Bulk " + args[0] + " failed: " + e.getMessage());
+        } finally {
+            ConnectionManager.getInstance().shutdown();
+        }
+    }
+
+    // Returns the number of rows inserted.
+    public long importCsv(Table table, BufferedReader in) throws IOException, SQLException {
+        long start = System.nanoTime();
+        Csv.Reader csv = new Csv.Reader(in);
+        String[] first = csv.next();
+        if (first != null && table.isHeader(first)) {
+            first = csv.next();
+        }
+        // an appointments file with the id column, as exported, keeps its ids
+        boolean keepIds = table == Table.APPOINTMENTS && first != null && first.length == table.header.length;
+        Query insert = keepIds ? Query.IMPORT_APPOINTMENT_WITH_ID : table.insert;
+
+        ForkJoinPool hashPool = table.hasPasswords() ? new ForkJoinPool(hashThreads) : null;
+        ConnectionManager cm = ConnectionManager.getInstance();
+        Connection con = cm.borrowConnection();
+        boolean h2 = con.getMetaData().getDatabaseProductName().equals("H2");
+        long rows = 0;
+        try {
+            if (keepIds && !h2) {
+                setIdentityInsert(con, true);
+            }
+            con.setAutoCommit(false);
+            // while one chunk is written, the next is read and its passwords hashed
+            Future<Chunk> pending = null;
+            while (true) {
+                Chunk chunk = readChunk(csv, first);
+                first = null;
+                Future<Chunk> next = null;
+                if (!chunk.isEmpty()) {
+                    next = hashPool != null
+                            ? hashPool.submit(() -> chunk.bind(table, keepIds))
+                            : CompletableFuture.completedFuture(chunk.bind(table, keepIds));
+                }
+                if (pending != null) {
+                    rows += write(cm, con, table, insert, await(pending));
+                }
+                if (next == null) {
+                    break;
+                }
+                pending = next;
+            }
+            if (keepIds && h2) {
+                restartAppointmentIds(cm, con);
+            }
+        } finally {
+            try {
+                if (keepIds && !h2) {
+                    setIdentityInsert(con, false);
+                }
+            } finally {
+                cm.returnConnection(con);
+                if (hashPool != null) {
+                    hashPool.shutdownNow();
+                }
+            }
+        }
+        if (table == Table.VACCINES) {
+            VaccineInventory.getInstance().invalidate();
+        }
+        if (table == Table.AVAILABILITIES) {
+            AvailabilityIndex.getInstance().invalidate();
+        }
+        printStatistics("Imported", rows, table, System.nanoTime() - start);
+        return rows;
+    }
+
+    // Returns the number of rows written.
+    public long exportCsv(Table table, Writer out) throws IOException, SQLException {
+        long start = System.nanoTime();
+        Csv.write(out, table.header);
+        long rows = 0;
+        ConnectionManager cm = ConnectionManager.getInstance();
+        Connection con = cm.borrowConnection();
+        try {
+            PreparedStatement statement = cm.prepareStatement(con, table.export);
+            statement.setFetchSize(fetchSize);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                int columns = resultSet.getMetaData().getColumnCount();
+                String[] fields = new String[columns];
+                while (resultSet.next()) {
+                    for (int i = 0; i < columns; i++) {
+                        Object value = resultSet.getObject(i + 1);
+                        if (value == null) {
+                            fields[i] = "";
+                        } else if (value instanceof byte[]) {
+                            fields[i] = Base64.getEncoder().encodeToString((byte[]) value);
+                        } else {
+                            fields[i] = value.toString();
+                        }
+                    }
+                    Csv.write(out, fields);
+                    rows++;
+                }
+            }
+        } finally {
+            cm.returnConnection(con);
+        }
+        out.flush();
+        printStatistics("Exported", rows, table, System.nanoTime() - start);
+        return rows;
+    }
+
+    private Chunk readChunk(Csv.Reader csv, String[] first) throws IOException {
+        Chunk chunk = new Chunk();
+        if (first != null) {
+            chunk.add(csv.getLineNumber(), first);
+        }
+        String[] record;
+        while (chunk.size() < batchSize && (record = csv.next()) != null) {
+            chunk.add(csv.getLineNumber(), record);
+        }
+        return chunk;
+    }
+
+    private long write(ConnectionManager cm, Connection con, Table table, Query insert, Chunk chunk)
+            throws SQLException {
+        PreparedStatement statement = cm.prepareStatement(con, insert);
+        try {
+            statement.clearBatch();
+            for (Object[] values : chunk.values) {
+                for (int i = 0; i < values.length; i++) {
+                    if (values[i] == null) {
+                        statement.setNull(i + 1, table.typeOf(i, values.length));
+                    } else {
+                        statement.setObject(i + 1, values[i]);
+                    }
+                }
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            if (table == Table.AVAILABILITIES) {
+                bumpAvailabilityVersions(cm, con, chunk);
+            }
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw new SQLException("Lines " + chunk.lineNumbers.get(0) + "-" +
+                    chunk.lineNumbers.get(chunk.size() - 1) + ": " + e.getMessage(), e.getSQLState(), e);
+        }
+        return chunk.size();
+    }
+
+    // SQL Server only takes explicit values for an identity column while IDENTITY_INSERT is on, and
+    // moves the identity past the largest one inserted on its own
+    private static void setIdentityInsert(Connection con, boolean on) throws SQLException {
+        try (Statement statement = con.createStatement()) {
+            statement.execute("SET IDENTITY_INSERT Appointments " + (on ? "ON" : "OFF"));
+        }
+    }
+
+    // H2 inserts explicit ids without moving the identity, so new appointments would collide with them
+    private static void restartAppointmentIds(ConnectionManager cm, Connection con) throws SQLException {
+        long next;
+        try (ResultSet resultSet = cm.prepareStatement(con, Query.MAX_APPOINTMENT_ID).executeQuery()) {
+            resultSet.next();
+            next = resultSet.getLong(1) + 1;
+        }
+        try (Statement statement = con.createStatement()) {
+            statement.execute("ALTER TABLE Appointments ALTER COLUMN Appointment_id RESTART WITH " + next);
+        }
+        con.commit();
+    }
+
+    // lets processes with an AvailabilityIndex see the imported days of each caregiver in the chunk
+    private static void bumpAvailabilityVersions(ConnectionManager cm, Connection con, Chunk chunk)
+            throws SQLException {
+        PreparedStatement bump = cm.prepareStatement(con, Query.BUMP_AVAILABILITY_VERSION);
+        bump.clearBatch();
+        // sorted, so concurrent imports lock caregivers in the same order
+        Set<String> caregivers = new TreeSet<>();
+        for (Object[] values : chunk.values) {
+            caregivers.add((String) values[1]);
+        }
+        for (String caregiver : caregivers) {
+            bump.setString(1, caregiver);
+            bump.addBatch();
+        }
+        bump.executeBatch();
+    }
+
+    private static Chunk await(Future<Chunk> chunk) throws SQLException {
+        try {
+            return chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while preparing rows");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IllegalArgumentException) {
+                throw (IllegalArgumentException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private void printStatistics(String verb, long rows, Table table, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        report.println(verb + " " + rows + " " + table.name().toLowerCase() + " rows in " +
+                String.format("%.3f", seconds) + " s (" +
+                String.format("%.1f", seconds == 0 ? 0 : rows / seconds) + " rows/s)");
+    }
+
+    // A batch worth of CSV records and, once bound, the values to insert for each.
+    private static class Chunk {
+        private final List<Integer> lineNumbers = new ArrayList<>();
+        private List<String[]> records = new ArrayList<>();
+        private List<Object[]> values;
+
+        void add(int lineNumber, String[] record) {
+            lineNumbers.add(lineNumber);
+            records.add(record);
+        }
+
+        int size() {
+            return lineNumbers.size();
+        }
+
+        boolean isEmpty() {
+            return lineNumbers.isEmpty();
+        }
+
+        // runs on the hash pool for patients and caregivers, one record per fork-join task
+        Chunk bind(Table table, boolean keepIds) {
+            byte[][] salts = table.hasPasswords() ? SaltGenerator.generateSalts(size()) : null;
+            IntStream indexes = IntStream.range(0, size());
+            if (table.hasPasswords()) {
+                indexes = indexes.parallel();
+            }
+            values = indexes
+                    .mapToObj(i -> {
+                        try {
+                            return bind(table, records.get(i), salts == null ? null : salts[i], keepIds);
+                        } catch (IllegalArgumentException e) {
+                            throw new IllegalArgumentException("Line " + lineNumbers.get(i) + ": " +
+                                    e.getMessage(), e);
+                        }
+                    })
+                    .collect(Collectors.toList());
+            records = null;
+            return this;
+        }
+
+        private static Object[] bind(Table table, String[] record, byte[] salt, boolean keepIds) {
+            switch (table) {
+                case CAREGIVERS:
+                case PATIENTS:
+                    if (record.length == 2) {
+                        PasswordHasher hasher = PasswordHasher.getInstance();
+                        PasswordHasher.Params params = hasher.getParams();
+                        return new Object[]{record[0], salt, hasher.hash(record[1], salt, params),
+                                params.getAlgorithm(), params.getIterations(), params.getKeyLength()};
+                    }
+                    expectColumns(record, 6);
+                    PasswordHasher.Params params = new PasswordHasher.Params(record[3],
+                            Integer.parseInt(record[4].trim()), Integer.parseInt(record[5].trim()));
+                    return new Object[]{text(record[0]), bytes(record[1]), bytes(record[2]),
+                            params.getAlgorithm(), params.getIterations(), params.getKeyLength()};
+                case AVAILABILITIES:
+                    expectColumns(record, 2);
+                    return new Object[]{date(record[0]), text(record[1])};
+                case VACCINES:
+                    expectColumns(record, 2);
+                    Integer doses = integer(record[1]);
+                    if (doses != null && doses < 0) {
+                        throw new IllegalArgumentException("Argument cannot be negative!");
+                    }
+                    return new Object[]{text(record[0]), doses};
+                case APPOINTMENTS:
+                    // a file has the id column on every line, and then keeps its ids, or on none
+                    if (keepIds) {
+                        expectColumns(record, 5);
+                        return new Object[]{integer(record[0]), text(record[1]), text(record[2]),
+                                date(record[3]), text(record[4])};
+                    }
+                    expectColumns(record, 4);
+                    return new Object[]{text(record[0]), text(record[1]), date(record[2]), text(record[3])};
+                default:
+                    throw new IllegalStateException("Unknown table: " + table);
+            }
+        }
+
+        // an empty field is NULL, the way exportCsv writes one
+        private static String text(String field) {
+            return field.isEmpty() ? null : field;
+        }
+
+        private static Integer integer(String field) {
+            return field.trim().isEmpty() ? null : Integer.valueOf(field.trim());
+        }
+
+        private static Date date(String field) {
+            return field.trim().isEmpty() ? null : Date.valueOf(field.trim());
+        }
+
+        private static byte[] bytes(String field) {
+            return field.trim().isEmpty() ? null : Base64.getDecoder().decode(field.trim());
+        }
+
+        private static void expectColumns(String[] record, int columns) {
+            if (record.length != columns) {
+                throw new IllegalArgumentException("Expected " + columns + " columns, found " + record.length);
+            }
+        }
+    }
+}
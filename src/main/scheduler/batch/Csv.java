@@ -0,0 +1,101 @@
+package scheduler.batch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal RFC 4180 CSV: comma separated, fields optionally quoted with ", a doubled "" inside quotes
+ * is a literal quote, and quoted fields may span lines.
+ */
+class Csv {
+
+    static class Reader {
+        private final BufferedReader in;
+        private int lineNumber = 0;
+        private int recordLineNumber = 0;
+
+        Reader(BufferedReader in) {
+            this.in = in;
+        }
+
+        // the line the last record returned by next() started on
+        int getLineNumber() {
+            return recordLineNumber;
+        }
+
+        // returns null at the end of the input; blank lines are skipped
+        String[] next() throws IOException {
+            String line;
+            do {
+                line = in.readLine();
+                if (line == null) {
+                    return null;
+                }
+                lineNumber++;
+            } while (line.isEmpty());
+            recordLineNumber = lineNumber;
+
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            int i = 0;
+            while (true) {
+                if (i == line.length()) {
+                    if (!quoted) {
+                        break;
+                    }
+                    // a quoted field continues on the next line
+                    line = in.readLine();
+                    if (line == null) {
+                        throw new IOException("Line " + recordLineNumber + ": unterminated quoted field");
+                    }
+                    lineNumber++;
+                    field.append('\n');
+                    i = 0;
+                    continue;
+                }
+                char c = line.charAt(i++);
+                if (quoted) {
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (i < line.length() && line.charAt(i) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            fields.add(field.toString());
+            return fields.toArray(new String[0]);
+        }
+    }
+
+    static void write(Writer out, String... fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            String field = fields[i];
+            if (field.indexOf(',') >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0
+                    || field.indexOf('\r') >= 0) {
+                out.write('"');
+                out.write(field.replace("\"", "\"\""));
+                out.write('"');
+            } else {
+                out.write(field);
+            }
+        }
+        out.write('\n');
+    }
+}
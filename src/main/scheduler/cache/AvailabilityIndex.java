@@ -0,0 +1,373 @@
+package scheduler.cache;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.Query;
+import scheduler.metrics.Metrics;
+import scheduler.util.Config;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An in-process copy of Availabilities, so the caregivers available on a date are found without a
+ * query. Turned off with AvailabilityIndexEnabled=false.
+ *
+ * Caregiver usernames are interned to small int ids, and each date maps to an int[] of the ids
+ * available on it, sorted by username; each caregiver's days are a sorted long[] of epoch days. The
+ * arrays are copied on every change and never modified once published, and a full load builds a new
+ * map and publishes it in one swap, so lookups take no lock and never see a half-loaded index.
+ *
+ * The index is loaded at startup, see {@link #preload}, or else on first use. This process's own writes are applied as soon as they commit.
+ * Writes from other processes are found through Caregivers.AvailabilityVersion, which every write to
+ * a caregiver's availability increments in the same transaction: at most every
+ * AvailabilityRefreshMillis a lookup compares all versions with the ones loaded, and reloads the
+ * availability of the caregivers that changed. Our own writes report the version they committed,
+ * so a caregiver only this process has changed is not reloaded. The database stays the authority; a reservation
+ * still claims its slot there, so a stale entry only costs a lost claim.
+ */
+public class AvailabilityIndex {
+
+    private static final int[] NONE = new int[0];
+    private static final long[] NO_DAYS = new long[0];
+
+    private static final AvailabilityIndex INSTANCE = new AvailabilityIndex();
+
+    private final boolean enabled = Config.getBoolean("AvailabilityIndexEnabled", true);
+    private final long refreshMillis = Config.getLong("AvailabilityRefreshMillis", 1_000);
+
+    // epoch day -> ids of the caregivers available that day, sorted by username; replaced whole by load
+    private volatile Map<Long, int[]> days = new ConcurrentHashMap<>();
+    // names[id] is the interned username; replaced, never modified, when it has to grow
+    private volatile String[] names = new String[64];
+
+    // guarded by this
+    private final Map<String, Integer> ids = new HashMap<>();
+    // daysById[id] is the caregiver's sorted epoch days
+    private List<long[]> daysById = new ArrayList<>();
+    // the AvailabilityVersion each caregiver's entries were loaded at
+    private final Map<String, Long> versions = new HashMap<>();
+
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private volatile boolean loaded = false;
+    private volatile long lastRefresh = 0;
+
+    private AvailabilityIndex() {
+    }
+
+    public static AvailabilityIndex getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Loads the index now so the first lookup does not pay for it; a failure is recorded, and the
+    // first lookup tries again.
+    public void preload() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            refreshIfStale();
+        } catch (SQLException e) {
+            Metrics.recordError("availability_index.load", e);
+        }
+    }
+
+    // The usernames of the caregivers available on the date, ordered by username.
+    public List<String> getCaregivers(Date date) throws SQLException {
+        refreshIfStale();
+        int[] available = days.getOrDefault(date.toLocalDate().toEpochDay(), NONE);
+        String[] interned = names;
+        List<String> caregivers = new ArrayList<>(available.length);
+        for (int id : available) {
+            caregivers.add(interned[id]);
+        }
+        return caregivers;
+    }
+
+    // Called once a transaction that made the caregiver available on these dates has committed, with
+    // the AvailabilityVersion it committed.
+    public void recordAdded(String username, Collection<Date> dates, long version) {
+        if (!loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (!advance(username, version)) {
+                return;
+            }
+            int id = intern(username);
+            for (Date date : dates) {
+                add(id, date.toLocalDate().toEpochDay());
+            }
+        }
+    }
+
+    // Called once a transaction that took the slot away has committed, with the AvailabilityVersion
+    // it committed.
+    public void recordRemoved(String username, Date date, long version) {
+        if (!loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (!advance(username, version)) {
+                return;
+            }
+            Integer id = ids.get(username);
+            if (id != null) {
+                remove(id, date.toLocalDate().toEpochDay());
+            }
+        }
+    }
+
+    // Called when a slot turns out to be gone already, e.g. another reservation claimed it first.
+    // That change was not ours, so the caregiver is still reloaded on the next refresh.
+    public void recordGone(String username, Date date) {
+        if (!loaded) {
+            return;
+        }
+        synchronized (this) {
+            Integer id = ids.get(username);
+            if (id != null) {
+                remove(id, date.toLocalDate().toEpochDay());
+            }
+        }
+    }
+
+    // Reload everything on the next lookup, e.g. after a bulk import.
+    public void invalidate() {
+        loaded = false;
+        lastRefresh = 0;
+    }
+
+    private void refreshIfStale() throws SQLException {
+        if (loaded && System.currentTimeMillis() - lastRefresh < refreshMillis) {
+            return;
+        }
+        // only one thread refreshes; the others keep using the current copy unless there is none
+        if (loaded) {
+            if (!refreshLock.tryLock()) {
+                return;
+            }
+        } else {
+            refreshLock.lock();
+        }
+        try {
+            if (!loaded) {
+                load();
+            } else if (System.currentTimeMillis() - lastRefresh >= refreshMillis) {
+                refresh();
+            }
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private void load() throws SQLException {
+        ConnectionManager cm = ConnectionManager.getInstance();
+        Connection con = cm.borrowConnection();
+        try {
+            long start = System.currentTimeMillis();
+            // versions first: a change committed after this read is picked up by the next refresh
+            Map<String, Long> current = readVersions(cm, con);
+            Map<String, List<Long>> availability = new HashMap<>();
+            PreparedStatement statement = cm.prepareStatement(con, Query.EXPORT_AVAILABILITIES);
+            statement.setFetchSize(Config.getInt("FetchSize", 1000));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    availability.computeIfAbsent(resultSet.getString(2), u -> new ArrayList<>())
+                            .add(resultSet.getDate(1).toLocalDate().toEpochDay());
+                }
+            }
+            synchronized (this) {
+                // built off to the side; lookups keep reading the old map until the swap below
+                Map<Long, List<Integer>> byDay = new HashMap<>();
+                List<long[]> loadedDaysById = new ArrayList<>();
+                for (Map.Entry<String, List<Long>> caregiver : availability.entrySet()) {
+                    int id = intern(caregiver.getKey());
+                    long[] caregiverDays = caregiver.getValue().stream().mapToLong(Long::longValue).sorted().toArray();
+                    while (loadedDaysById.size() <= id) {
+                        loadedDaysById.add(NO_DAYS);
+                    }
+                    loadedDaysById.set(id, caregiverDays);
+                    for (long day : caregiverDays) {
+                        byDay.computeIfAbsent(day, d -> new ArrayList<>()).add(id);
+                    }
+                }
+                while (loadedDaysById.size() < ids.size()) {
+                    loadedDaysById.add(NO_DAYS);
+                }
+                String[] interned = names;
+                Map<Long, int[]> loadedDays = new ConcurrentHashMap<>();
+                for (Map.Entry<Long, List<Integer>> day : byDay.entrySet()) {
+                    loadedDays.put(day.getKey(), day.getValue().stream()
+                            .sorted((a, b) -> interned[a].compareTo(interned[b]))
+                            .mapToInt(Integer::intValue).toArray());
+                }
+                versions.clear();
+                versions.putAll(current);
+                daysById = loadedDaysById;
+                days = loadedDays;
+            }
+            lastRefresh = start;
+            loaded = true;
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    private void refresh() throws SQLException {
+        ConnectionManager cm = ConnectionManager.getInstance();
+        Connection con = cm.borrowConnection();
+        try {
+            long start = System.currentTimeMillis();
+            Map<String, Long> current = readVersions(cm, con);
+            for (Map.Entry<String, Long> caregiver : current.entrySet()) {
+                String username = caregiver.getKey();
+                synchronized (this) {
+                    // versions only grow, and ours may already be past the one just read
+                    Long known = versions.get(username);
+                    if (known != null && caregiver.getValue() <= known) {
+                        continue;
+                    }
+                }
+                List<Long> available = new ArrayList<>();
+                PreparedStatement statement = cm.prepareStatement(con, Query.CAREGIVER_AVAILABILITY);
+                statement.setString(1, username);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        available.add(resultSet.getDate(1).toLocalDate().toEpochDay());
+                    }
+                }
+                synchronized (this) {
+                    int id = intern(username);
+                    for (long day : daysById.get(id)) {
+                        remove(id, day);
+                    }
+                    for (long day : available) {
+                        add(id, day);
+                    }
+                    versions.put(username, caregiver.getValue());
+                }
+            }
+            lastRefresh = start;
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    private static Map<String, Long> readVersions(ConnectionManager cm, Connection con) throws SQLException {
+        Map<String, Long> current = new HashMap<>();
+        PreparedStatement statement = cm.prepareStatement(con, Query.CAREGIVER_AVAILABILITY_VERSIONS);
+        statement.setFetchSize(Config.getInt("FetchSize", 1000));
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                current.put(resultSet.getString(1), resultSet.getLong(2));
+            }
+        }
+        return current;
+    }
+
+    // called with this held; false if the entries already include the change committed at version
+    private boolean advance(String username, long version) {
+        Long known = versions.get(username);
+        if (known != null && known >= version) {
+            return false;
+        }
+        // nothing changed between the version we have and ours, so the entries stay current
+        if (known != null && known == version - 1) {
+            versions.put(username, version);
+        }
+        return true;
+    }
+
+    // called with this held
+    private int intern(String username) {
+        Integer id = ids.get(username);
+        if (id != null) {
+            return id;
+        }
+        int next = ids.size();
+        String[] current = names;
+        if (next == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[next] = username.intern();
+        // publish before any day array can refer to the new id
+        names = current;
+        ids.put(username, next);
+        daysById.add(NO_DAYS);
+        return next;
+    }
+
+    // called with this held
+    private void add(int id, long day) {
+        long[] caregiverDays = daysById.get(id);
+        int at = Arrays.binarySearch(caregiverDays, day);
+        if (at >= 0) {
+            return;
+        }
+        at = -at - 1;
+        long[] added = new long[caregiverDays.length + 1];
+        System.arraycopy(caregiverDays, 0, added, 0, at);
+        added[at] = day;
+        System.arraycopy(caregiverDays, at, added, at + 1, caregiverDays.length - at);
+        daysById.set(id, added);
+
+        Map<Long, int[]> days = this.days;
+        int[] current = days.getOrDefault(day, NONE);
+        String[] interned = names;
+        int position = 0;
+        while (position < current.length && interned[current[position]].compareTo(interned[id]) < 0) {
+            position++;
+        }
+        int[] updated = new int[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, position);
+        updated[position] = id;
+        System.arraycopy(current, position, updated, position + 1, current.length - position);
+        days.put(day, updated);
+    }
+
+    // called with this held
+    private void remove(int id, long day) {
+        long[] caregiverDays = daysById.get(id);
+        int at = Arrays.binarySearch(caregiverDays, day);
+        if (at < 0) {
+            return;
+        }
+        long[] removed = new long[caregiverDays.length - 1];
+        System.arraycopy(caregiverDays, 0, removed, 0, at);
+        System.arraycopy(caregiverDays, at + 1, removed, at, removed.length - at);
+        daysById.set(id, removed);
+
+        Map<Long, int[]> days = this.days;
+        int[] current = days.getOrDefault(day, NONE);
+        int position = 0;
+        while (position < current.length && current[position] != id) {
+            position++;
+        }
+        if (position == current.length) {
+            return;
+        }
+        if (current.length == 1) {
+            days.remove(day);
+            return;
+        }
+        int[] updated = new int[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, position);
+        System.arraycopy(current, position + 1, updated, position, updated.length - position);
+        days.put(day, updated);
+    }
+}
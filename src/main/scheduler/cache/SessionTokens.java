@@ -0,0 +1,118 @@
+package scheduler.cache;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.util.Config;
+import scheduler.util.SaltGenerator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Opaque tokens standing for a completed login, so that a client who reconnects can resume its
+ * session with a map lookup instead of another password hash and SELECT.
+ *
+ * A token is 32 random bytes, URL-safe encoded, and carries nothing about the user; the user it
+ * stands for is only known to this process. Tokens expire SessionTokenTtlSeconds after they were
+ * issued. At most SessionTokenCapacity are kept (0 disables them), and when full the least recently
+ * used one is dropped, so a flood of logins costs memory for a bounded number of tokens only.
+ */
+public class SessionTokens {
+
+    private static final int TOKEN_BYTES = 32;
+
+    private static final SessionTokens INSTANCE = new SessionTokens();
+
+    private final int capacity = Config.getInt("SessionTokenCapacity", 10_000);
+    private final long ttlMillis = Config.getLong("SessionTokenTtlSeconds", 3_600) * 1_000;
+
+    // access-ordered, so the eldest entry is the least recently used one
+    private final Map<String, Login> tokens = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Login> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    private SessionTokens() {
+    }
+
+    public static SessionTokens getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    // returns a new token for the caregiver, or null if tokens are disabled
+    public String issue(Caregiver caregiver) {
+        return issue(new Login(caregiver, null, System.currentTimeMillis() + ttlMillis));
+    }
+
+    // returns a new token for the patient, or null if tokens are disabled
+    public String issue(Patient patient) {
+        return issue(new Login(null, patient, System.currentTimeMillis() + ttlMillis));
+    }
+
+    private String issue(Login login) {
+        if (!isEnabled()) {
+            return null;
+        }
+        String token = SaltGenerator.generateToken(TOKEN_BYTES);
+        synchronized (tokens) {
+            tokens.put(token, login);
+        }
+        return token;
+    }
+
+    // The login a token stands for, or null if it is unknown or has expired.
+    public Login lookup(String token) {
+        synchronized (tokens) {
+            Login login = tokens.get(token);
+            if (login == null) {
+                return null;
+            }
+            if (login.expiresAt <= System.currentTimeMillis()) {
+                tokens.remove(token);
+                return null;
+            }
+            return login;
+        }
+    }
+
+    public void revoke(String token) {
+        if (token != null) {
+            synchronized (tokens) {
+                tokens.remove(token);
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (tokens) {
+            return tokens.size();
+        }
+    }
+
+    // Exactly one of caregiver and patient is not null.
+    public static class Login {
+        private final Caregiver caregiver;
+        private final Patient patient;
+        private final long expiresAt;
+
+        private Login(Caregiver caregiver, Patient patient, long expiresAt) {
+            this.caregiver = caregiver;
+            this.patient = patient;
+            this.expiresAt = expiresAt;
+        }
+
+        public Caregiver getCaregiver() {
+            return caregiver;
+        }
+
+        public Patient getPatient() {
+            return patient;
+        }
+    }
+}
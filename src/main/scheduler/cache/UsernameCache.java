@@ -0,0 +1,189 @@
+package scheduler.cache;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.Query;
+import scheduler.util.Config;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Answers "is this username taken?" for account creation mostly without a query.
+ *
+ * A Bloom filter over every username in the table, filled from the database on first use, says
+ * for most free names that they are definitely free. Recent exact answers from the database are
+ * kept in an LRU of UsernameCacheSize entries. Anything else is looked up with a keyed EXISTS query.
+ *
+ * The answer is only a hint: accounts created by another process are not in the filter, so a name
+ * reported free may still be taken. Callers insert and treat the primary key violation as the final
+ * word, then report it here with {@link #added}. The filter is sized for UsernameBloomCapacity
+ * names or twice the table, whichever is larger, at a 1% false positive rate; past that, more free
+ * names simply fall through to the query.
+ */
+public class UsernameCache {
+
+    public static final UsernameCache CAREGIVERS = new UsernameCache(Query.CAREGIVER_USERNAMES, Query.CAREGIVER_EXISTS);
+    public static final UsernameCache PATIENTS = new UsernameCache(Query.PATIENT_USERNAMES, Query.PATIENT_EXISTS);
+
+    private final Query loadQuery;
+    private final Query existsQuery;
+    private final int lruSize = Config.getInt("UsernameCacheSize", 10_000);
+
+    private volatile BloomFilter filter;
+    // username -> whether the database had it when last asked
+    private final Map<String, Boolean> recent = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > lruSize;
+        }
+    };
+
+    private UsernameCache(Query loadQuery, Query existsQuery) {
+        this.loadQuery = loadQuery;
+        this.existsQuery = existsQuery;
+    }
+
+    // Whether the username is probably taken; see the class comment for why this is only a hint.
+    public boolean isTaken(String username) throws SQLException {
+        synchronized (recent) {
+            Boolean taken = recent.get(username);
+            if (taken != null) {
+                return taken;
+            }
+        }
+        if (!filter().mightContain(username)) {
+            return false;
+        }
+        boolean taken = exists(username);
+        synchronized (recent) {
+            recent.put(username, taken);
+        }
+        return taken;
+    }
+
+    // Records that the username now exists, after creating it or failing to on a duplicate key.
+    public void added(String username) throws SQLException {
+        filter().add(username);
+        synchronized (recent) {
+            recent.put(username, true);
+        }
+    }
+
+    private BloomFilter filter() throws SQLException {
+        BloomFilter current = filter;
+        if (current == null) {
+            synchronized (this) {
+                current = filter;
+                if (current == null) {
+                    current = load();
+                    filter = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private BloomFilter load() throws SQLException {
+        ConnectionManager cm = ConnectionManager.getInstance();
+        Connection con = cm.borrowConnection();
+        try {
+            List<String> usernames = new ArrayList<>();
+            PreparedStatement statement = cm.prepareStatement(con, loadQuery);
+            statement.setFetchSize(Config.getInt("FetchSize", 1000));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    usernames.add(resultSet.getString(1));
+                }
+            }
+            BloomFilter loaded = new BloomFilter(Math.max(Config.getInt("UsernameBloomCapacity", 100_000),
+                    2 * usernames.size()));
+            for (String username : usernames) {
+                loaded.add(username);
+            }
+            return loaded;
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    private boolean exists(String username) throws SQLException {
+        ConnectionManager cm = ConnectionManager.getInstance();
+        Connection con = cm.borrowConnection();
+        try {
+            PreparedStatement statement = cm.prepareStatement(con, existsQuery);
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    /**
+     * Seven bit positions per name, from double hashing a mixed 64-bit FNV-1a hash, in about ten
+     * bits per expected name, which gives roughly 1% false positives at capacity. Names are
+     * lower-cased first, so on a case-insensitive database "Alice" also rules "alice" in, never out.
+     */
+    private static class BloomFilter {
+        private static final int HASHES = 7;
+
+        private final AtomicLongArray words;
+        private final long bits;
+
+        BloomFilter(int capacity) {
+            long wordCount = Math.max(1, ((long) capacity * 10 + 63) / 64);
+            this.words = new AtomicLongArray((int) Math.min(wordCount, Integer.MAX_VALUE - 8));
+            this.bits = (long) words.length() * 64;
+        }
+
+        void add(String username) {
+            long hash = hash(username);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < HASHES; i++) {
+                long bit = Integer.toUnsignedLong(h1 + i * h2) % bits;
+                long mask = 1L << bit;
+                int word = (int) (bit >>> 6);
+                if ((words.get(word) & mask) == 0) {
+                    words.getAndAccumulate(word, mask, (a, b) -> a | b);
+                }
+            }
+        }
+
+        boolean mightContain(String username) {
+            long hash = hash(username);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < HASHES; i++) {
+                long bit = Integer.toUnsignedLong(h1 + i * h2) % bits;
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static long hash(String username) {
+            String key = username.toLowerCase(Locale.ROOT);
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < key.length(); i++) {
+                hash ^= key.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            // spread every input bit over both halves, which are used as separate hashes
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+    }
+}
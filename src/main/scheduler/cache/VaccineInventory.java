@@ -0,0 +1,459 @@
+package scheduler.cache;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.Query;
+import scheduler.metrics.Metrics;
+import scheduler.util.Config;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Process-wide cache of the Vaccines table, keyed by vaccine name.
+ *
+ * Reads are served from memory. The whole table is re-read at most once per refresh interval, and
+ * an entry is only replaced when the row's Version column differs from the cached one, so changes
+ * made by other scheduler processes sharing the database show up within one interval. An entry this
+ * process has changed itself is always replaced by the next re-read. Only one thread re-reads at a
+ * time; the others keep answering from the current entries meanwhile.
+ *
+ * Restocks ({@link #addDoses}) are applied locally right away and written behind: a background task
+ * sends all pending increments to the database as one JDBC batch. Taking a dose stays inside the
+ * reservation transaction, where it is atomic with claiming the caregiver slot; the reserver only
+ * tells the cache about it afterwards ({@link #recordTaken}) so the cached count stays current
+ * without another read, and asks the cache first ({@link #beforeTake}) so a vaccine known to be out
+ * of stock is rejected without opening a transaction.
+ */
+public class VaccineInventory {
+
+    private static final VaccineInventory INSTANCE = new VaccineInventory();
+
+    private final long refreshMillis = Config.getLong("VaccineCacheRefreshMillis", 1_000);
+    private final long flushMillis = Config.getLong("VaccineFlushMillis", 500);
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private volatile long lastRefresh = 0;
+
+    private VaccineInventory() {
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "vaccine-inventory-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (SQLException e) {
+                Metrics.recordError("vaccine_inventory.flush", e);
+            }
+        }, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "vaccine-inventory-shutdown"));
+    }
+
+    public static VaccineInventory getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the number of available doses of a vaccine, including restocks not yet flushed, or
+     * null if there is no such vaccine.
+     */
+    public Integer getDoses(String vaccineName) throws SQLException {
+        refreshIfStale();
+        Entry entry = entries.get(vaccineName);
+        if (entry == null) {
+            entry = load(vaccineName);
+        }
+        return entry == null ? null : entry.getDoses();
+    }
+
+    // All vaccines and their available doses, ordered by name.
+    public SortedMap<String, Integer> snapshot() throws SQLException {
+        refreshIfStale();
+        SortedMap<String, Integer> snapshot = new TreeMap<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            snapshot.put(e.getKey(), e.getValue().getDoses());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Adds doses to a vaccine, creating it if it does not exist yet. New vaccines are inserted
+     * immediately; increments to existing ones are flushed in the background.
+     */
+    public void addDoses(String vaccineName, int num) throws SQLException {
+        if (num < 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
+        }
+        Entry entry = entries.get(vaccineName);
+        if (entry == null) {
+            entry = load(vaccineName);
+        }
+        if (entry == null && insert(vaccineName, num)) {
+            return;
+        }
+        if (entry == null) {
+            // another process created it between our lookup and insert
+            entry = load(vaccineName);
+        }
+        entry.addPending(num);
+    }
+
+    /**
+     * Called before a reservation takes a dose. Returns false when the vaccine is known, freshly
+     * cached and out of stock, so the caller can fail without touching the database; otherwise
+     * writes out any pending restock of that vaccine so the reservation can see it.
+     */
+    public boolean beforeTake(String vaccineName) throws SQLException {
+        refreshIfStale();
+        Entry entry = entries.get(vaccineName);
+        if (entry == null) {
+            return true;
+        }
+        if (entry.getDoses() <= 0) {
+            return false;
+        }
+        if (entry.getPending() != 0) {
+            flush();
+        }
+        return true;
+    }
+
+    // Called once a transaction that took a dose of this vaccine has committed.
+    public void recordTaken(String vaccineName) {
+        recordAdjusted(vaccineName, -1);
+    }
+
+    // Called once a transaction that gave back a dose of this vaccine has committed.
+    public void recordReturned(String vaccineName) {
+        recordAdjusted(vaccineName, 1);
+    }
+
+    // Called once a transaction that changed the doses of this vaccine by delta has committed.
+    public void recordAdjusted(String vaccineName, int delta) {
+        Entry entry = entries.get(vaccineName);
+        if (entry != null) {
+            entry.applyCommitted(delta);
+        }
+    }
+
+    /**
+     * Changes the doses of several vaccines at once, by a positive or negative amount each, as
+     * relative updates sent in one JDBC batch and committed together. If any vaccine does not exist
+     * or would go below zero doses, nothing is changed and an IllegalArgumentException names it.
+     *
+     * The database applies each change to the current count under its own row lock, so concurrent
+     * adjustments, restocks and reservations never lose each other's updates. Rows are updated in
+     * name order so two batches touching the same vaccines cannot deadlock.
+     */
+    public void adjustDoses(Map<String, Integer> deltas) throws SQLException {
+        SortedMap<String, Integer> ordered = new TreeMap<>(deltas);
+        ordered.values().removeIf(delta -> delta == 0);
+        if (ordered.isEmpty()) {
+            return;
+        }
+        // the guard must see restocks that are still pending here
+        for (String name : ordered.keySet()) {
+            Entry entry = entries.get(name);
+            if (entry != null && entry.getPending() != 0) {
+                flush();
+                break;
+            }
+        }
+
+        ConnectionManager cm = ConnectionManager.getInstance();
+        Connection con = cm.borrowConnection();
+        try {
+            con.setAutoCommit(false);
+            PreparedStatement statement = cm.prepareStatement(con, Query.ADJUST_DOSES);
+            statement.clearBatch();
+            for (Map.Entry<String, Integer> e : ordered.entrySet()) {
+                statement.setInt(1, e.getValue());
+                statement.setString(2, e.getKey());
+                statement.setInt(3, e.getValue());
+                statement.addBatch();
+            }
+            int[] counts = statement.executeBatch();
+            int i = 0;
+            for (String name : ordered.keySet()) {
+                if (counts[i++] == 0) {
+                    con.rollback();
+                    throw new IllegalArgumentException("Not enough available doses of " + name + "!");
+                }
+            }
+            con.commit();
+        } finally {
+            cm.returnConnection(con);
+        }
+        for (Map.Entry<String, Integer> e : ordered.entrySet()) {
+            recordAdjusted(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Adds doses to several vaccines at once, creating the ones that do not exist, in one JDBC batch
+     * of increments and one of inserts committed together, so either all of them are written or none.
+     * Unlike {@link #addDoses} nothing is left pending for the background flush. If another process
+     * creates one of the new vaccines concurrently, the insert fails on the key and nothing is changed.
+     */
+    public void restock(Map<String, Integer> increments) throws SQLException {
+        SortedMap<String, Integer> ordered = new TreeMap<>(increments);
+        for (Map.Entry<String, Integer> e : ordered.entrySet()) {
+            if (e.getValue() < 0) {
+                throw new IllegalArgumentException("Argument cannot be negative!");
+            }
+        }
+        if (ordered.isEmpty()) {
+            return;
+        }
+
+        List<String> created = new ArrayList<>();
+        ConnectionManager cm = ConnectionManager.getInstance();
+        Connection con = cm.borrowConnection();
+        try {
+            con.setAutoCommit(false);
+            PreparedStatement update = cm.prepareStatement(con, Query.ADD_DOSES);
+            update.clearBatch();
+            for (Map.Entry<String, Integer> e : ordered.entrySet()) {
+                update.setInt(1, e.getValue());
+                update.setString(2, e.getKey());
+                update.addBatch();
+            }
+            int[] counts = update.executeBatch();
+            PreparedStatement insert = cm.prepareStatement(con, Query.ADD_VACCINE);
+            insert.clearBatch();
+            int i = 0;
+            for (Map.Entry<String, Integer> e : ordered.entrySet()) {
+                if (counts[i++] == 0) {
+                    insert.setString(1, e.getKey());
+                    insert.setInt(2, e.getValue());
+                    insert.addBatch();
+                    created.add(e.getKey());
+                }
+            }
+            if (!created.isEmpty()) {
+                insert.executeBatch();
+            }
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.returnConnection(con);
+        }
+        for (Map.Entry<String, Integer> e : ordered.entrySet()) {
+            if (created.contains(e.getKey())) {
+                merge(e.getKey(), e.getValue(), 0);
+            } else {
+                recordAdjusted(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    // Make the next read re-check the database instead of waiting for the refresh interval.
+    public void invalidate() {
+        lastRefresh = 0;
+    }
+
+    /**
+     * Writes every pending restock to the database as one batch in one transaction. On failure the
+     * increments stay pending and are retried on the next flush.
+     */
+    public synchronized void flush() throws SQLException {
+        List<String> names = new ArrayList<>();
+        List<Integer> deltas = new ArrayList<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            int pending = e.getValue().getPending();
+            if (pending != 0) {
+                names.add(e.getKey());
+                deltas.add(pending);
+            }
+        }
+        if (names.isEmpty()) {
+            return;
+        }
+
+        ConnectionManager cm = ConnectionManager.getInstance();
+        Connection con = cm.borrowConnection();
+        try {
+            con.setAutoCommit(false);
+            PreparedStatement statement = cm.prepareStatement(con, Query.ADD_DOSES);
+            // the statement is shared, so drop anything left behind by a flush that failed midway
+            statement.clearBatch();
+            for (int i = 0; i < names.size(); i++) {
+                statement.setInt(1, deltas.get(i));
+                statement.setString(2, names.get(i));
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            con.commit();
+        } finally {
+            cm.returnConnection(con);
+        }
+        for (int i = 0; i < names.size(); i++) {
+            entries.get(names.get(i)).flushed(deltas.get(i));
+        }
+    }
+
+    public void shutdown() {
+        flusher.shutdown();
+        try {
+            flush();
+        } catch (SQLException e) {
+            Metrics.recordError("vaccine_inventory.flush", e);
+        }
+    }
+
+    private void refreshIfStale() throws SQLException {
+        if (System.currentTimeMillis() - lastRefresh < refreshMillis) {
+            return;
+        }
+        // only one thread refreshes; the others keep using the cached entries, unless the cache has
+        // never been read or was invalidated, in which case they wait for the fresh copy
+        if (lastRefresh != 0) {
+            if (!refreshLock.tryLock()) {
+                return;
+            }
+        } else {
+            refreshLock.lock();
+        }
+        try {
+            if (System.currentTimeMillis() - lastRefresh >= refreshMillis) {
+                refresh();
+            }
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private void refresh() throws SQLException {
+        ConnectionManager cm = ConnectionManager.getInstance();
+        Connection con = cm.borrowConnection();
+        try {
+            long start = System.currentTimeMillis();
+            PreparedStatement statement = cm.prepareStatement(con, Query.VACCINE_INVENTORY);
+            // hold the flush lock from the read to the merge: a flush committing in between would
+            // move its doses from pending to stored after we read the rows, counting them twice or
+            // not at all
+            synchronized (this) {
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        merge(resultSet.getString(1), resultSet.getInt(2), resultSet.getLong(3));
+                    }
+                }
+            }
+            lastRefresh = start;
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    private Entry load(String vaccineName) throws SQLException {
+        ConnectionManager cm = ConnectionManager.getInstance();
+        Connection con = cm.borrowConnection();
+        try {
+            PreparedStatement statement = cm.prepareStatement(con, Query.GET_VACCINE);
+            statement.setString(1, vaccineName);
+            // under the flush lock for the same reason as refresh()
+            synchronized (this) {
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (resultSet.next()) {
+                        return merge(resultSet.getString(1), resultSet.getInt(2), resultSet.getLong(3));
+                    }
+                    return null;
+                }
+            }
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    // returns false if the vaccine already exists
+    private boolean insert(String vaccineName, int doses) throws SQLException {
+        ConnectionManager cm = ConnectionManager.getInstance();
+        Connection con = cm.borrowConnection();
+        try {
+            PreparedStatement statement = cm.prepareStatement(con, Query.ADD_VACCINE);
+            statement.setString(1, vaccineName);
+            statement.setInt(2, doses);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            if (e.getSQLState() != null && e.getSQLState().startsWith("23")) {
+                return false;
+            }
+            throw e;
+        } finally {
+            cm.returnConnection(con);
+        }
+        merge(vaccineName, doses, 0);
+        return true;
+    }
+
+    private Entry merge(String vaccineName, int doses, long version) {
+        Entry entry = entries.computeIfAbsent(vaccineName, name -> new Entry(doses, version));
+        entry.merge(doses, version);
+        return entry;
+    }
+
+    private static class Entry {
+        // our own commits do not tell us the row's new Version, and a refresh may already have read
+        // it, so after one the next refresh has to take the database's value whatever it is
+        private static final long UNKNOWN = -1;
+
+        // doses as last read from the database, adjusted by our own committed changes
+        private int stored;
+        // restocks applied locally but not yet written to the database
+        private int pending;
+        private long version;
+
+        Entry(int stored, long version) {
+            this.stored = stored;
+            this.version = version;
+        }
+
+        synchronized int getDoses() {
+            return stored + pending;
+        }
+
+        synchronized int getPending() {
+            return pending;
+        }
+
+        synchronized void addPending(int num) {
+            pending += num;
+        }
+
+        synchronized void flushed(int num) {
+            pending -= num;
+            stored += num;
+            version = UNKNOWN;
+        }
+
+        synchronized void applyCommitted(int delta) {
+            stored += delta;
+            version = UNKNOWN;
+        }
+
+        // take the database's value unless we have already seen this version
+        synchronized void merge(int stored, long version) {
+            if (version != this.version) {
+                this.stored = stored;
+                this.version = version;
+            }
+        }
+    }
+}
@@ -1,41 +1,313 @@
 package scheduler.db;
 
+import scheduler.metrics.Metrics;
+import scheduler.util.Config;
+
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * A bounded pool of JDBC connections shared by the whole process.
+ *
+ * Callers borrow a connection, use it, and hand it back in a finally block:
+ * <pre>
+ *     ConnectionManager cm = ConnectionManager.getInstance();
+ *     Connection con = cm.borrowConnection();
+ *     try {
+ *         ...
+ *     } finally {
+ *         cm.returnConnection(con);
+ *     }
+ * </pre>
+ * Statements are obtained through {@link #prepareStatement(Connection, Query)}, which caches them
+ * per connection. Idle connections are reused most-recently-returned first, validated before reuse
+ * once they have sat idle for a while, and closed by a background evictor after the idle timeout.
+ */
 public class ConnectionManager {
 
+    private static final ConnectionManager INSTANCE = new ConnectionManager();
+
     private final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
-    private final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
+    // DatabaseUrl selects any other JDBC database, e.g. jdbc:h2:mem:scheduler or jdbc:h2:./scheduler
+    private final String configuredUrl = Config.get("DatabaseUrl", null);
+    private final String connectionUrl = configuredUrl != null ? embeddedUrl(configuredUrl)
+            : "jdbc:sqlserver://" + System.getenv("Server") +
             ".database.windows.net:1433;database=" + System.getenv("DBName");
-    private final String userName = System.getenv("UserID");
-    private final String userPass = System.getenv("Password");
+    private final String userName = Config.get("DatabaseUser", System.getenv("UserID"));
+    private final String userPass = Config.get("DatabasePassword", System.getenv("Password"));
 
-    private Connection con = null;
+    // pool settings
+    private final int maxSize = Config.getInt("PoolMaxSize", 10);
+    private final int minIdle = Config.getInt("PoolMinIdle", 0);
+    private final long acquireTimeoutMillis = Config.getLong("PoolAcquireTimeoutMillis", 30_000);
+    private final long idleTimeoutMillis = Config.getLong("PoolIdleTimeoutMillis", 600_000);
+    private final long validationIntervalMillis = Config.getLong("PoolValidationIntervalMillis", 5_000);
+    private final int validationTimeoutSeconds = Config.getInt("PoolValidationTimeoutSeconds", 5);
 
-    public ConnectionManager() {
-        try {
-            Class.forName(driverName);
-        } catch (ClassNotFoundException e) {
-            System.out.println(e.toString());
+    // one permit per connection that may be handed out, so active connections never exceed maxSize
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Map<Connection, PooledConnection> borrowed = new IdentityHashMap<>();
+    private final ScheduledExecutorService evictor;
+
+    // pool metrics
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder acquireCount = new LongAdder();
+    private final LongAdder acquireWaitNanos = new LongAdder();
+    private final AtomicLong maxAcquireWaitNanos = new AtomicLong();
+    private final LongAdder acquireTimeouts = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+    private final LongAdder invalidCount = new LongAdder();
+
+    private ConnectionManager() {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("PoolMaxSize must be positive!");
+        }
+        if (configuredUrl == null) {
+            try {
+                Class.forName(driverName);
+            } catch (ClassNotFoundException e) {
+                System.out.println(e.toString());
+            }
         }
+        // an embedded database starts out empty, so give it the tables by default
+        if (Config.getBoolean("DatabaseCreateSchema", connectionUrl.startsWith("jdbc:h2:"))) {
+            try (Connection con = DriverManager.getConnection(connectionUrl, userName, userPass)) {
+                SchemaInitializer.createIfMissing(con, Config.get("DatabaseSchema", null));
+            } catch (SQLException | IOException e) {
+                throw new IllegalStateException("Could not create the database schema", e);
+            }
+        }
+        this.permits = new Semaphore(maxSize, true);
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1_000, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
     }
 
-    public Connection createConnection() {
+    public static ConnectionManager getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * H2 runs create.sql and the scheduler's queries in its SQL Server compatibility mode, and an
+     * in-memory H2 database must outlive the pool's idle connections, so both settings are added
+     * unless the URL already chooses otherwise.
+     */
+    private static String embeddedUrl(String url) {
+        if (!url.startsWith("jdbc:h2:")) {
+            return url;
+        }
+        String upper = url.toUpperCase();
+        if (!upper.contains(";MODE=")) {
+            url += ";MODE=MSSQLServer";
+        }
+        if (upper.startsWith("JDBC:H2:MEM:") && !upper.contains(";DB_CLOSE_DELAY=")) {
+            url += ";DB_CLOSE_DELAY=-1";
+        }
+        return url;
+    }
+
+    /**
+     * Borrows a connection from the pool, waiting up to the acquire timeout when every connection
+     * is in use. The connection is in auto-commit mode and must be given back with
+     * {@link #returnConnection(Connection)}.
+     */
+    public Connection borrowConnection() throws SQLException {
+        long start = System.nanoTime();
+        boolean acquired;
         try {
-            con = DriverManager.getConnection(connectionUrl, userName, userPass);
-        } catch (SQLException e) {
-            e.printStackTrace();
+            acquired = permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a connection");
+        }
+        long waited = System.nanoTime() - start;
+        acquireWaitNanos.add(waited);
+        maxAcquireWaitNanos.accumulateAndGet(waited, Math::max);
+        Metrics.recordNanos(Metrics.POOL_WAIT, waited);
+        if (!acquired) {
+            acquireTimeouts.increment();
+            throw new SQLTransientConnectionException("Timed out after " + acquireTimeoutMillis +
+                    " ms waiting for a database connection");
+        }
+        acquireCount.increment();
+
+        try {
+            PooledConnection pooled = takeIdle();
+            if (pooled == null) {
+                pooled = new PooledConnection(DriverManager.getConnection(connectionUrl, userName, userPass));
+                createdCount.increment();
+            }
+            synchronized (borrowed) {
+                borrowed.put(pooled.getConnection(), pooled);
+            }
+            active.incrementAndGet();
+            return pooled.getConnection();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
         }
-        return con;
     }
 
-    public void closeConnection() {
+    /**
+     * Gives a borrowed connection back to the pool. Any open transaction is rolled back. Passing
+     * null is a no-op so callers can return unconditionally from a finally block.
+     */
+    public void returnConnection(Connection con) {
+        if (con == null) {
+            return;
+        }
+        PooledConnection pooled;
+        synchronized (borrowed) {
+            pooled = borrowed.remove(con);
+        }
+        if (pooled == null) {
+            throw new IllegalStateException("Connection was not borrowed from this pool!");
+        }
+        active.decrementAndGet();
         try {
-            this.con.close();
-        } catch (SQLException e) {
-            e.printStackTrace();
+            if (pooled.reset()) {
+                idle.offerFirst(pooled);
+            } else {
+                pooled.close();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Returns the prepared statement for a query on a borrowed connection, preparing it only the
+     * first time this connection runs the query. The statement belongs to the pool: callers bind
+     * parameters and execute it, close the result sets they open, but never close the statement.
+     */
+    public PreparedStatement prepareStatement(Connection con, Query query) throws SQLException {
+        PooledConnection pooled;
+        synchronized (borrowed) {
+            pooled = borrowed.get(con);
+        }
+        if (pooled == null) {
+            throw new IllegalStateException("Connection was not borrowed from this pool!");
+        }
+        return pooled.prepare(query);
+    }
+
+    /**
+     * Closes every idle connection. Connections still borrowed are closed as they are returned
+     * only if they turn out to be broken, so this is meant to be called on the way out.
+     */
+    public void shutdown() {
+        evictor.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            pooled.close();
+        }
+    }
+
+    // take the most recently used idle connection, discarding any that fail validation
+    private PooledConnection takeIdle() {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (pooled.idleMillis() < validationIntervalMillis || pooled.isValid(validationTimeoutSeconds)) {
+                return pooled;
+            }
+            invalidCount.increment();
+            pooled.close();
+        }
+        return null;
+    }
+
+    private void evictIdle() {
+        for (PooledConnection pooled : idle) {
+            if (idle.size() <= minIdle) {
+                return;
+            }
+            if (pooled.idleMillis() >= idleTimeoutMillis && idle.removeFirstOccurrence(pooled)) {
+                evictedCount.increment();
+                pooled.close();
+            }
         }
     }
-}
\ No newline at end of file
+
+    // Metrics
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    public long getAcquireCount() {
+        return acquireCount.sum();
+    }
+
+    public long getAcquireTimeoutCount() {
+        return acquireTimeouts.sum();
+    }
+
+    public long getTotalAcquireWaitNanos() {
+        return acquireWaitNanos.sum();
+    }
+
+    public long getMaxAcquireWaitNanos() {
+        return maxAcquireWaitNanos.get();
+    }
+
+    public long getCreatedCount() {
+        return createdCount.sum();
+    }
+
+    public long getEvictedCount() {
+        return evictedCount.sum();
+    }
+
+    public long getInvalidCount() {
+        return invalidCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        long acquires = getAcquireCount();
+        return "ConnectionPool{" +
+                "active=" + getActiveCount() +
+                ", idle=" + getIdleCount() +
+                ", waiting=" + getWaitingCount() +
+                ", maxSize=" + maxSize +
+                ", acquires=" + acquires +
+                ", timeouts=" + getAcquireTimeoutCount() +
+                ", avgWaitMicros=" + (acquires == 0 ? 0 : getTotalAcquireWaitNanos() / acquires / 1_000) +
+                ", maxWaitMicros=" + getMaxAcquireWaitNanos() / 1_000 +
+                ", created=" + getCreatedCount() +
+                ", evicted=" + getEvictedCount() +
+                ", invalid=" + getInvalidCount() +
+                '}';
+    }
+}
@@ -0,0 +1,82 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+// A physical connection owned by ConnectionManager, along with the bookkeeping the pool needs.
+class PooledConnection {
+    private final Connection connection;
+    // prepared once per Query and kept for the life of the connection, indexed by Query.ordinal()
+    private final PreparedStatement[] statements = new PreparedStatement[Query.values().length];
+    private final long createdAt;
+    private volatile long lastUsedAt;
+
+    PooledConnection(Connection connection) {
+        this.connection = connection;
+        this.createdAt = System.currentTimeMillis();
+        this.lastUsedAt = createdAt;
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    PreparedStatement prepare(Query query) throws SQLException {
+        PreparedStatement statement = statements[query.ordinal()];
+        if (statement == null || statement.isClosed()) {
+            statement = query.returnsGeneratedKeys()
+                    ? connection.prepareStatement(query.getSql(), Statement.RETURN_GENERATED_KEYS)
+                    : connection.prepareStatement(query.getSql());
+            if (Metrics.ENABLED) {
+                statement = TimedStatement.wrap(statement, query);
+            }
+            statements[query.ordinal()] = statement;
+        }
+        return statement;
+    }
+
+    long getCreatedAt() {
+        return createdAt;
+    }
+
+    long idleMillis() {
+        return System.currentTimeMillis() - lastUsedAt;
+    }
+
+    boolean isValid(int timeoutSeconds) {
+        try {
+            return connection.isValid(timeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    // Put the connection back into a clean auto-commit state; returns false if it should be discarded.
+    boolean reset() {
+        try {
+            if (connection.isClosed()) {
+                return false;
+            }
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            lastUsedAt = System.currentTimeMillis();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    void close() {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            Metrics.recordError("pool.close", e);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package scheduler.db;
+
+/**
+ * Every SQL statement the scheduler sends to the database. Values are always bound as parameters,
+ * so each text is parsed once by the server and its plan reused, and each pooled connection keeps
+ * one prepared statement per constant (see {@link ConnectionManager#prepareStatement}).
+ */
+public enum Query {
+    // Caregivers
+    ADD_CAREGIVER("INSERT INTO Caregivers (Username, Salt, Hash, HashAlgorithm, HashIterations, HashKeyLength) " +
+            "VALUES (?, ?, ?, ?, ?, ?)"),
+    GET_CAREGIVER("SELECT Salt, Hash, HashAlgorithm, HashIterations, HashKeyLength FROM Caregivers " +
+            "WHERE Username = ?"),
+    UPDATE_CAREGIVER_HASH("UPDATE Caregivers SET Salt = ?, Hash = ?, HashAlgorithm = ?, HashIterations = ?, " +
+            "HashKeyLength = ? WHERE Username = ?"),
+    CAREGIVER_EXISTS("SELECT 1 FROM Caregivers WHERE Username = ?"),
+    // every username, for filling the username cache; the primary key alone covers it
+    CAREGIVER_USERNAMES("SELECT Username FROM Caregivers"),
+    // incremented with every change to the caregiver's availability, in the same transaction
+    BUMP_AVAILABILITY_VERSION("UPDATE Caregivers SET AvailabilityVersion = AvailabilityVersion + 1 " +
+            "WHERE Username = ?"),
+    CAREGIVER_AVAILABILITY_VERSIONS("SELECT Username, AvailabilityVersion FROM Caregivers"),
+    GET_AVAILABILITY_VERSION("SELECT AvailabilityVersion FROM Caregivers WHERE Username = ?"),
+
+    // Patients
+    ADD_PATIENT("INSERT INTO Patients (Username, Salt, Hash, HashAlgorithm, HashIterations, HashKeyLength) " +
+            "VALUES (?, ?, ?, ?, ?, ?)"),
+    GET_PATIENT("SELECT Salt, Hash, HashAlgorithm, HashIterations, HashKeyLength FROM Patients " +
+            "WHERE Username = ?"),
+    UPDATE_PATIENT_HASH("UPDATE Patients SET Salt = ?, Hash = ?, HashAlgorithm = ?, HashIterations = ?, " +
+            "HashKeyLength = ? WHERE Username = ?"),
+    PATIENT_EXISTS("SELECT 1 FROM Patients WHERE Username = ?"),
+    PATIENT_USERNAMES("SELECT Username FROM Patients"),
+
+    // Bulk export, each in primary key order
+    EXPORT_CAREGIVERS("SELECT Username, Salt, Hash, HashAlgorithm, HashIterations, HashKeyLength " +
+            "FROM Caregivers ORDER BY Username"),
+    EXPORT_PATIENTS("SELECT Username, Salt, Hash, HashAlgorithm, HashIterations, HashKeyLength " +
+            "FROM Patients ORDER BY Username"),
+    EXPORT_AVAILABILITIES("SELECT Time, Username FROM Availabilities ORDER BY Time, Username"),
+    EXPORT_VACCINES("SELECT Name, Doses FROM Vaccines ORDER BY Name"),
+    EXPORT_APPOINTMENTS("SELECT Appointment_id, Caregiver_username, Vaccine_name, Time, Patient_username " +
+            "FROM Appointments ORDER BY Appointment_id"),
+
+    // Availabilities
+    ADD_AVAILABILITY("INSERT INTO Availabilities VALUES (?, ?)"),
+    // inserts nothing, instead of failing, when the caregiver is already available that day
+    ADD_AVAILABILITY_IF_ABSENT("INSERT INTO Availabilities (Time, Username) SELECT ?, ? WHERE NOT EXISTS " +
+            "(SELECT 1 FROM Availabilities WHERE Time = ? AND Username = ?)"),
+    // an index seek on the (Time, Username) primary key, already in Username order
+    FIND_AVAILABLE_CAREGIVERS("SELECT Username FROM Availabilities WHERE Time = ? ORDER BY Username"),
+    // the same candidates with how many appointments each has, fewest first; the counts come from
+    // the Appointments_Caregiver index
+    FIND_LEAST_BOOKED_CAREGIVERS("SELECT A.Username, COUNT(P.Appointment_id) FROM Availabilities AS A " +
+            "LEFT JOIN Appointments AS P ON P.Caregiver_username = A.Username WHERE A.Time = ? " +
+            "GROUP BY A.Username ORDER BY COUNT(P.Appointment_id), A.Username"),
+    // the earliest free slots in [from, until) while the vaccine is in stock: a range seek on the
+    // (Time, Username) primary key that stops after the requested number of rows
+    FIND_EARLIEST_AVAILABILITIES("SELECT A.Time, A.Username FROM Availabilities AS A " +
+            "JOIN Vaccines AS V ON V.Name = ? AND V.Doses > 0 " +
+            "WHERE A.Time >= ? AND A.Time < ? ORDER BY A.Time, A.Username OFFSET 0 ROWS FETCH NEXT ? ROWS ONLY"),
+    CLAIM_AVAILABILITY("DELETE FROM Availabilities WHERE Time = ? AND Username = ?"),
+    // one caregiver's days, served by the Availabilities_Username index
+    CAREGIVER_AVAILABILITY("SELECT Time FROM Availabilities WHERE Username = ?"),
+
+    // Vaccines
+    // every UPDATE of Vaccines also bumps Version, which VaccineInventory uses to spot stale entries
+    ADD_VACCINE("INSERT INTO Vaccines (Name, Doses) VALUES (?, ?)"),
+    GET_VACCINE("SELECT Name, Doses, Version FROM Vaccines WHERE Name = ?"),
+    VACCINE_INVENTORY("SELECT Name, Doses, Version FROM Vaccines ORDER BY Name"),
+    // a relative change that leaves the row alone, with an update count of 0, if it would go negative
+    ADJUST_DOSES("UPDATE Vaccines SET Doses = Doses + ?, Version = Version + 1 WHERE Name = ? AND Doses + ? >= 0"),
+    ADD_DOSES("UPDATE Vaccines SET Doses = Doses + ?, Version = Version + 1 WHERE Name = ?"),
+    TAKE_DOSE("UPDATE Vaccines SET Doses = Doses - 1, Version = Version + 1 WHERE Name = ? AND Doses > 0"),
+    RETURN_DOSE("UPDATE Vaccines SET Doses = Doses + 1, Version = Version + 1 WHERE Name = ?"),
+
+    // Appointments
+    ADD_APPOINTMENT("INSERT INTO Appointments (Caregiver_username, Vaccine_name, Time, Patient_username) " +
+            "VALUES (?, ?, ?, ?)", true),
+    // the same insert for bulk loads, which do not need the new ids back
+    IMPORT_APPOINTMENT("INSERT INTO Appointments (Caregiver_username, Vaccine_name, Time, Patient_username) " +
+            "VALUES (?, ?, ?, ?)"),
+    // and for exported files, which keep their ids; SQL Server needs IDENTITY_INSERT on for it
+    IMPORT_APPOINTMENT_WITH_ID("INSERT INTO Appointments " +
+            "(Appointment_id, Caregiver_username, Vaccine_name, Time, Patient_username) VALUES (?, ?, ?, ?, ?)"),
+    MAX_APPOINTMENT_ID("SELECT MAX(Appointment_id) FROM Appointments"),
+    // Cancellation: both filter on the owner, given as caregiver and patient username with the other
+    // one null, so another user's appointment looks the same as a missing one. The update count of
+    // the DELETE decides which of two concurrent cancels frees the slot.
+    GET_OWN_APPOINTMENT("SELECT Caregiver_username, Vaccine_name, Time, Patient_username FROM Appointments " +
+            "WHERE Appointment_id = ? AND (Caregiver_username = ? OR Patient_username = ?)"),
+    DELETE_OWN_APPOINTMENT("DELETE FROM Appointments " +
+            "WHERE Appointment_id = ? AND (Caregiver_username = ? OR Patient_username = ?)"),
+    // a caregiver's bookings on one day, for closing it; served by the Appointments_Caregiver index
+    CAREGIVER_DAY_DOSES("SELECT Vaccine_name, COUNT(*) FROM Appointments " +
+            "WHERE Caregiver_username = ? AND Time = ? GROUP BY Vaccine_name"),
+    DELETE_CAREGIVER_DAY("DELETE FROM Appointments WHERE Caregiver_username = ? AND Time = ?"),
+    // one keyset page, served by the covering Appointments_Caregiver and Appointments_Patient indexes:
+    // a seek to (username, after_id) and a scan of at most page size + 1 rows
+    CAREGIVER_APPOINTMENTS("SELECT A.Appointment_id, A.Vaccine_name, A.Time, A.Patient_username " +
+            "FROM Appointments AS A WHERE A.Caregiver_username = ? AND A.Appointment_id > ? " +
+            "AND A.Time >= ? AND A.Time <= ? ORDER BY A.Appointment_id OFFSET 0 ROWS FETCH NEXT ? ROWS ONLY"),
+    PATIENT_APPOINTMENTS("SELECT A.Appointment_id, A.Vaccine_name, A.Time, A.Caregiver_username " +
+            "FROM Appointments AS A WHERE A.Patient_username = ? AND A.Appointment_id > ? " +
+            "AND A.Time >= ? AND A.Time <= ? ORDER BY A.Appointment_id OFFSET 0 ROWS FETCH NEXT ? ROWS ONLY");
+
+    private final String sql;
+    private final boolean returnsGeneratedKeys;
+
+    Query(String sql) {
+        this(sql, false);
+    }
+
+    Query(String sql, boolean returnsGeneratedKeys) {
+        this.sql = sql;
+        this.returnsGeneratedKeys = returnsGeneratedKeys;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public boolean returnsGeneratedKeys() {
+        return returnsGeneratedKeys;
+    }
+}
@@ -0,0 +1,83 @@
+package scheduler.db;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+/**
+ * Runs create.sql against a database that does not have the scheduler tables yet, so an embedded
+ * database can start empty. The script is read from the given file, or from create.sql on the class
+ * path when no file is given.
+ */
+class SchemaInitializer {
+
+    // Creates the tables unless Caregivers already exists. Returns whether the script was run.
+    static boolean createIfMissing(Connection con, String scriptFile) throws SQLException, IOException {
+        if (hasTable(con, "Caregivers")) {
+            return false;
+        }
+        String script = read(scriptFile);
+        boolean autoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+        try (Statement statement = con.createStatement()) {
+            for (String sql : split(script)) {
+                statement.execute(sql);
+            }
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            con.setAutoCommit(autoCommit);
+        }
+        return true;
+    }
+
+    private static boolean hasTable(Connection con, String name) throws SQLException {
+        DatabaseMetaData metaData = con.getMetaData();
+        // identifiers may be stored upper case, lower case or as written, depending on the database
+        for (String candidate : new String[]{name, name.toUpperCase(), name.toLowerCase()}) {
+            try (ResultSet tables = metaData.getTables(null, null, candidate, new String[]{"TABLE"})) {
+                if (tables.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String read(String scriptFile) throws IOException {
+        InputStream in = scriptFile != null
+                ? new FileInputStream(scriptFile)
+                : SchemaInitializer.class.getClassLoader().getResourceAsStream("create.sql");
+        if (in == null) {
+            throw new IOException("create.sql is not on the class path; set DatabaseSchema to its location");
+        }
+        try (InputStream script = in) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            script.transferTo(bytes);
+            return bytes.toString(StandardCharsets.UTF_8);
+        }
+    }
+
+    // statements are separated by ; and -- starts a comment that runs to the end of the line
+    private static String[] split(String script) {
+        StringBuilder sql = new StringBuilder();
+        for (String line : script.split("\n")) {
+            int comment = line.indexOf("--");
+            sql.append(comment >= 0 ? line.substring(0, comment) : line).append('\n');
+        }
+        return Arrays.stream(sql.toString().split(";"))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .toArray(String[]::new);
+    }
+}
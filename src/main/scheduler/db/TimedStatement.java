@@ -0,0 +1,40 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+
+// Times every execute call of a cached statement under its Query. Only used when metrics are on.
+class TimedStatement implements InvocationHandler {
+    private final PreparedStatement statement;
+    private final Query query;
+
+    private TimedStatement(PreparedStatement statement, Query query) {
+        this.statement = statement;
+        this.query = query;
+    }
+
+    static PreparedStatement wrap(PreparedStatement statement, Query query) {
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, new TimedStatement(statement, query));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        boolean timed = method.getName().startsWith("execute");
+        long start = timed ? Metrics.start() : 0;
+        try {
+            return method.invoke(statement, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        } finally {
+            if (timed) {
+                Metrics.recordQuery(query, start);
+            }
+        }
+    }
+}
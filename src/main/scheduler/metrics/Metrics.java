@@ -0,0 +1,239 @@
+package scheduler.metrics;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.Query;
+import scheduler.util.Config;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide timings and error counts, turned on with MetricsEnabled.
+ *
+ * Recorded are the latency of every command, the execution time of every {@link Query}, how long
+ * callers waited for a pooled connection, and the time spent hashing passwords. Errors are counted
+ * by where they happened and exception type whether or not timings are on. When enabled, the
+ * numbers are published over JMX as scheduler:type=Metrics and printed by the metrics command.
+ *
+ * The enabled flag is a static final read once at startup, so with metrics off every recording
+ * call is a branch the JIT removes, and statements are not wrapped at all.
+ */
+public class Metrics {
+
+    public static final boolean ENABLED = Config.getBoolean("MetricsEnabled", false);
+    private static final boolean PRINT_STACK_TRACES = Config.getBoolean("PrintStackTraces", true);
+
+    public static final String POOL_WAIT = "pool.wait";
+    public static final String PASSWORD_HASH = "password.hash";
+
+    private static final Map<String, LatencyHistogram> COMMANDS = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> TIMERS = new ConcurrentHashMap<>();
+    private static final LatencyHistogram[] QUERIES = new LatencyHistogram[Query.values().length];
+    private static final Map<String, LongAdder> ERRORS = new ConcurrentHashMap<>();
+
+    static {
+        for (Query query : Query.values()) {
+            QUERIES[query.ordinal()] = new LatencyHistogram();
+        }
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(),
+                        new ObjectName("scheduler:type=Metrics"));
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Start of a timed section; pass the result to one of the record methods.
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    public static void recordCommand(String command, long start) {
+        if (ENABLED) {
+            COMMANDS.computeIfAbsent(command, c -> new LatencyHistogram()).record(System.nanoTime() - start);
+        }
+    }
+
+    public static void recordQuery(Query query, long start) {
+        if (ENABLED) {
+            QUERIES[query.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    public static void recordNanos(String timer, long nanos) {
+        if (ENABLED) {
+            TIMERS.computeIfAbsent(timer, t -> new LatencyHistogram()).record(nanos);
+        }
+    }
+
+    public static void record(String timer, long start) {
+        if (ENABLED) {
+            recordNanos(timer, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Counts an error under where it happened and its type, and prints its stack trace unless
+     * PrintStackTraces is false.
+     */
+    public static void recordError(String where, Throwable e) {
+        ERRORS.computeIfAbsent(where + ":" + e.getClass().getSimpleName(), k -> new LongAdder()).increment();
+        if (PRINT_STACK_TRACES) {
+            e.printStackTrace();
+        }
+    }
+
+    public static void reset() {
+        COMMANDS.values().forEach(LatencyHistogram::reset);
+        TIMERS.values().forEach(LatencyHistogram::reset);
+        for (LatencyHistogram histogram : QUERIES) {
+            histogram.reset();
+        }
+        ERRORS.values().forEach(LongAdder::reset);
+    }
+
+    /**
+     * Every metric by name, e.g. command.reserve.p99_us, sql.TAKE_DOSE.count, pool.wait.max_us,
+     * error.reserve:SQLException. Histograms that recorded nothing are left out.
+     */
+    public static SortedMap<String, Number> snapshot() {
+        SortedMap<String, Number> snapshot = new TreeMap<>();
+        COMMANDS.forEach((name, histogram) -> addHistogram(snapshot, "command." + name, histogram));
+        for (Query query : Query.values()) {
+            addHistogram(snapshot, "sql." + query.name(), QUERIES[query.ordinal()]);
+        }
+        TIMERS.forEach((name, histogram) -> addHistogram(snapshot, name, histogram));
+        ERRORS.forEach((name, count) -> snapshot.put("error." + name, count.sum()));
+        ConnectionManager cm = ConnectionManager.getInstance();
+        snapshot.put("pool.active", cm.getActiveCount());
+        snapshot.put("pool.idle", cm.getIdleCount());
+        snapshot.put("pool.waiting", cm.getWaitingCount());
+        snapshot.put("pool.timeouts", cm.getAcquireTimeoutCount());
+        return snapshot;
+    }
+
+    // One line per command, statement and timer with its count and latencies, then the counters.
+    public static String dump() {
+        StringBuilder out = new StringBuilder();
+        if (!ENABLED) {
+            out.append("Timings are disabled, set MetricsEnabled=true to record them").append(System.lineSeparator());
+        }
+        COMMANDS.entrySet().stream().sorted(Map.Entry.comparingByKey())
+                .forEach(e -> appendHistogram(out, "command " + e.getKey(), e.getValue()));
+        for (Query query : Query.values()) {
+            appendHistogram(out, "sql " + query.name(), QUERIES[query.ordinal()]);
+        }
+        TIMERS.entrySet().stream().sorted(Map.Entry.comparingByKey())
+                .forEach(e -> appendHistogram(out, e.getKey(), e.getValue()));
+        ERRORS.entrySet().stream().sorted(Map.Entry.comparingByKey())
+                .forEach(e -> out.append("error ").append(e.getKey()).append(" count=").append(e.getValue().sum())
+                        .append(System.lineSeparator()));
+        out.append(ConnectionManager.getInstance());
+        return out.toString();
+    }
+
+    private static void addHistogram(SortedMap<String, Number> snapshot, String name, LatencyHistogram histogram) {
+        long count = histogram.getCount();
+        if (count == 0) {
+            return;
+        }
+        snapshot.put(name + ".count", count);
+        snapshot.put(name + ".mean_us", histogram.getTotalNanos() / count / 1_000);
+        snapshot.put(name + ".p50_us", histogram.getPercentileNanos(0.50) / 1_000);
+        snapshot.put(name + ".p99_us", histogram.getPercentileNanos(0.99) / 1_000);
+        snapshot.put(name + ".p999_us", histogram.getPercentileNanos(0.999) / 1_000);
+        snapshot.put(name + ".max_us", histogram.getMaxNanos() / 1_000);
+    }
+
+    private static void appendHistogram(StringBuilder out, String name, LatencyHistogram histogram) {
+        long count = histogram.getCount();
+        if (count == 0) {
+            return;
+        }
+        out.append(String.format("%-36s count=%-8d mean=%.3f ms p50=%.3f ms p99=%.3f ms p999=%.3f ms max=%.3f ms%n",
+                name, count, histogram.getTotalNanos() / (double) count / 1e6,
+                histogram.getPercentileNanos(0.50) / 1e6, histogram.getPercentileNanos(0.99) / 1e6,
+                histogram.getPercentileNanos(0.999) / 1e6, histogram.getMaxNanos() / 1e6));
+    }
+
+    // Publishes snapshot() as read-only attributes, which change as new commands and errors appear.
+    private static class MetricsMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number value = snapshot().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value.longValue();
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            SortedMap<String, Number> snapshot = snapshot();
+            AttributeList list = new AttributeList();
+            for (String name : attributes) {
+                Number value = snapshot.get(name);
+                if (value != null) {
+                    list.add(new Attribute(name, value.longValue()));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            if (actionName.equals("dump")) {
+                return dump();
+            }
+            if (actionName.equals("reset")) {
+                reset();
+                return null;
+            }
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            SortedMap<String, Number> snapshot = snapshot();
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[snapshot.size()];
+            int i = 0;
+            for (String name : snapshot.keySet()) {
+                attributes[i++] = new MBeanAttributeInfo(name, "long", name, true, false, false);
+            }
+            MBeanOperationInfo[] operations = {
+                    new MBeanOperationInfo("dump", "All metrics as text", new MBeanParameterInfo[0],
+                            "java.lang.String", MBeanOperationInfo.INFO),
+                    new MBeanOperationInfo("reset", "Clear all metrics", new MBeanParameterInfo[0],
+                            "void", MBeanOperationInfo.ACTION)
+            };
+            return new MBeanInfo(Metrics.class.getName(), "Scheduler metrics", attributes, null, operations, null);
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package scheduler.model;
+
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.VaccineInventory;
+import scheduler.db.ConnectionManager;
+import scheduler.db.Query;
+import scheduler.util.Config;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+public class Appointment {
+    // process-wide reservation contention counters
+    private static final LongAdder RETRIES = new LongAdder();
+    private static final LongAdder LOST_CLAIMS = new LongAdder();
+
+    private final int appointmentId;
+    private final String caregiverUsername;
+    private final String vaccineName;
+    private final Date time;
+    private final String patientUsername;
+
+    private Appointment(int appointmentId, String caregiverUsername, String vaccineName, Date time,
+                        String patientUsername) {
+        this.appointmentId = appointmentId;
+        this.caregiverUsername = caregiverUsername;
+        this.vaccineName = vaccineName;
+        this.time = time;
+        this.patientUsername = patientUsername;
+    }
+
+    // Reservation attempts repeated after losing a race or a transaction conflict, since startup.
+    public static long getReservationRetryCount() {
+        return RETRIES.sum();
+    }
+
+    // Availability rows another reservation claimed first, since startup.
+    public static long getLostClaimCount() {
+        return LOST_CLAIMS.sum();
+    }
+
+    // Getters
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public String getCaregiverUsername() {
+        return caregiverUsername;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    public String getPatientUsername() {
+        return patientUsername;
+    }
+
+    @Override
+    public String toString() {
+        return "Appointment{" +
+                "appointmentId=" + appointmentId +
+                ", caregiverUsername='" + caregiverUsername + '\'' +
+                ", vaccineName='" + vaccineName + '\'' +
+                ", time=" + time +
+                ", patientUsername='" + patientUsername + '\'' +
+                '}';
+    }
+
+    /**
+     * Cancels an appointment of the given caregiver or patient, with the other username null, in one
+     * transaction: the appointment is deleted only if it belongs to them, and its slot and dose are
+     * given back before the commit, so no one can see the appointment gone but the slot or dose
+     * missing. Returns the canceled appointment, or null if they have no appointment with that id.
+     */
+    public static Appointment cancel(int appointmentId, String caregiverUsername, String patientUsername)
+            throws SQLException {
+        ConnectionManager cm = ConnectionManager.getInstance();
+        Connection con = cm.borrowConnection();
+        try {
+            con.setAutoCommit(false);
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    Appointment appointment = tryCancel(cm, con, appointmentId, caregiverUsername, patientUsername);
+                    long version = appointment == null ? 0
+                            : Caregiver.getAvailabilityVersion(cm, con, appointment.caregiverUsername);
+                    con.commit();
+                    if (appointment != null) {
+                        VaccineInventory.getInstance().recordReturned(appointment.vaccineName);
+                        AvailabilityIndex.getInstance().recordAdded(appointment.caregiverUsername,
+                                Collections.singletonList(appointment.time), version);
+                    }
+                    return appointment;
+                } catch (SQLException e) {
+                    con.rollback();
+                    // a concurrent upload of the same day can insert it between the restore's check
+                    // and its insert; run again, and this time the check will see that row
+                    boolean retry = isConflict(e) || (e.getSQLState() != null && e.getSQLState().startsWith("23"));
+                    if (!retry || attempt + 1 >= Config.getInt("ReserveMaxAttempts", 5)) {
+                        throw e;
+                    }
+                }
+            }
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    private static Appointment tryCancel(ConnectionManager cm, Connection con, int appointmentId,
+                                         String caregiverUsername, String patientUsername) throws SQLException {
+        String caregiver;
+        String vaccine;
+        Date time;
+        String patient;
+        PreparedStatement find = cm.prepareStatement(con, Query.GET_OWN_APPOINTMENT);
+        find.setInt(1, appointmentId);
+        find.setString(2, caregiverUsername);
+        find.setString(3, patientUsername);
+        try (ResultSet resultSet = find.executeQuery()) {
+            if (!resultSet.next()) {
+                return null;
+            }
+            caregiver = resultSet.getString(1);
+            vaccine = resultSet.getString(2);
+            time = resultSet.getDate(3);
+            patient = resultSet.getString(4);
+        }
+        // appointments are never updated, so the row read above is the row deleted here; a count of
+        // 0 means a concurrent cancel got there first and already gave the slot back
+        PreparedStatement delete = cm.prepareStatement(con, Query.DELETE_OWN_APPOINTMENT);
+        delete.setInt(1, appointmentId);
+        delete.setString(2, caregiverUsername);
+        delete.setString(3, patientUsername);
+        if (delete.executeUpdate() == 0) {
+            return null;
+        }
+        // the caregiver may have offered the day again after it was booked
+        PreparedStatement restore = cm.prepareStatement(con, Query.ADD_AVAILABILITY_IF_ABSENT);
+        restore.setDate(1, time);
+        restore.setString(2, caregiver);
+        restore.setDate(3, time);
+        restore.setString(4, caregiver);
+        restore.executeUpdate();
+        Caregiver.bumpAvailabilityVersion(cm, con, caregiver);
+        PreparedStatement returnDose = cm.prepareStatement(con, Query.RETURN_DOSE);
+        returnDose.setString(1, vaccine);
+        returnDose.executeUpdate();
+        return new Appointment(appointmentId, caregiver, vaccine, time, patient);
+    }
+
+    /**
+     * Closes a caregiver's day: cancels every appointment they have on the date, gives the doses
+     * back and withdraws their availability for it, all in one transaction. Returns the number of
+     * appointments canceled.
+     */
+    public static int cancelDay(String caregiverUsername, Date time) throws SQLException {
+        ConnectionManager cm = ConnectionManager.getInstance();
+        Connection con = cm.borrowConnection();
+        try {
+            con.setAutoCommit(false);
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    Map<String, Integer> returned = tryCancelDay(cm, con, caregiverUsername, time);
+                    if (returned != null) {
+                        long version = Caregiver.getAvailabilityVersion(cm, con, caregiverUsername);
+                        con.commit();
+                        AvailabilityIndex.getInstance().recordRemoved(caregiverUsername, time, version);
+                        int canceled = 0;
+                        for (Map.Entry<String, Integer> vaccine : returned.entrySet()) {
+                            VaccineInventory.getInstance().recordAdjusted(vaccine.getKey(), vaccine.getValue());
+                            canceled += vaccine.getValue();
+                        }
+                        return canceled;
+                    }
+                    con.rollback();
+                } catch (SQLException e) {
+                    con.rollback();
+                    if (!isConflict(e)) {
+                        throw e;
+                    }
+                }
+                if (attempt + 1 >= Config.getInt("ReserveMaxAttempts", 5)) {
+                    throw new SQLException("Appointments of " + caregiverUsername + " on " + time +
+                            " kept changing while canceling them", "40001");
+                }
+            }
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    // doses to give back per vaccine, or null if a booking slipped in between counting and deleting
+    private static Map<String, Integer> tryCancelDay(ConnectionManager cm, Connection con, String caregiverUsername,
+                                                     Date time) throws SQLException {
+        // withdrawing the slot first means no new booking can start for the day
+        PreparedStatement withdraw = cm.prepareStatement(con, Query.CLAIM_AVAILABILITY);
+        withdraw.setDate(1, time);
+        withdraw.setString(2, caregiverUsername);
+        withdraw.executeUpdate();
+        Caregiver.bumpAvailabilityVersion(cm, con, caregiverUsername);
+
+        // sorted, so concurrent dose updates always lock vaccines in the same order
+        Map<String, Integer> returned = new TreeMap<>();
+        int expected = 0;
+        PreparedStatement count = cm.prepareStatement(con, Query.CAREGIVER_DAY_DOSES);
+        count.setString(1, caregiverUsername);
+        count.setDate(2, time);
+        try (ResultSet resultSet = count.executeQuery()) {
+            while (resultSet.next()) {
+                returned.put(resultSet.getString(1), resultSet.getInt(2));
+                expected += resultSet.getInt(2);
+            }
+        }
+        if (expected == 0) {
+            return returned;
+        }
+        PreparedStatement delete = cm.prepareStatement(con, Query.DELETE_CAREGIVER_DAY);
+        delete.setString(1, caregiverUsername);
+        delete.setDate(2, time);
+        if (delete.executeUpdate() != expected) {
+            return null;
+        }
+        PreparedStatement adjust = cm.prepareStatement(con, Query.ADJUST_DOSES);
+        adjust.clearBatch();
+        for (Map.Entry<String, Integer> vaccine : returned.entrySet()) {
+            adjust.setInt(1, vaccine.getValue());
+            adjust.setString(2, vaccine.getKey());
+            adjust.setInt(3, vaccine.getValue());
+            adjust.addBatch();
+        }
+        adjust.executeBatch();
+        return returned;
+    }
+
+    // SQLState class 40 (transaction rollback, e.g. chosen as a deadlock victim) means another
+    // transaction won the race and the whole attempt can simply be retried
+    private static boolean isConflict(SQLException e) {
+        String state = e.getSQLState();
+        return state != null && state.startsWith("40");
+    }
+
+    public enum ReservationStatus {
+        RESERVED,
+        NO_CAREGIVER,
+        NOT_ENOUGH_DOSES,
+        CONFLICT
+    }
+
+    /**
+     * Books one appointment for a patient on a date: claims a caregiver's availability, takes one
+     * dose and records the appointment in a single transaction. Each step is a conditional write
+     * whose update count tells us whether a concurrent booking got there first, so two patients can
+     * never end up with the same slot or the last dose. Lost races are retried a bounded number of
+     * times before giving up with {@link ReservationStatus#CONFLICT}.
+     */
+    public static class AppointmentReserver {
+        private final String patientUsername;
+        private final Date time;
+        // with a range, the earliest date from time up to but not including until is booked
+        private final Date until;
+        private final String vaccineName;
+        private final int maxAttempts = Config.getInt("ReserveMaxAttempts", 5);
+        private final int rangeCandidates = Config.getInt("ReserveRangeCandidates", 16);
+        private AssignmentPolicy policy = AssignmentPolicy.fromConfig();
+        private ReservationStatus status;
+        // availability rows other reservations claimed first, over all attempts of this one
+        private int lostClaims;
+        // the date of the slot claimed by the current attempt
+        private Date claimedTime;
+        // candidates from the AvailabilityIndex, read before borrowing a connection since a refresh
+        // borrows one of its own; null when the database is asked instead
+        private List<String> indexed;
+
+        public AppointmentReserver(String patientUsername, Date time, String vaccineName) {
+            this(patientUsername, time, null, vaccineName);
+        }
+
+        // Books the earliest free slot from time (inclusive) to until (exclusive).
+        public AppointmentReserver(String patientUsername, Date time, Date until, String vaccineName) {
+            this.patientUsername = patientUsername;
+            this.time = time;
+            this.until = until;
+            this.vaccineName = vaccineName;
+        }
+
+        public ReservationStatus getStatus() {
+            return status;
+        }
+
+        public int getLostClaims() {
+            return lostClaims;
+        }
+
+        public AppointmentReserver setPolicy(AssignmentPolicy policy) {
+            this.policy = policy;
+            return this;
+        }
+
+        // returns the booked appointment, or null with getStatus() explaining why
+        public Appointment reserve() throws SQLException {
+            VaccineInventory inventory = VaccineInventory.getInstance();
+            if (!inventory.beforeTake(vaccineName)) {
+                status = ReservationStatus.NOT_ENOUGH_DOSES;
+                return null;
+            }
+            AvailabilityIndex index = AvailabilityIndex.getInstance();
+            if (until == null && index.isEnabled() && policy != AssignmentPolicy.LEAST_BOOKED) {
+                indexed = index.getCaregivers(time);
+            }
+            ConnectionManager cm = ConnectionManager.getInstance();
+            Connection con = cm.borrowConnection();
+            try {
+                con.setAutoCommit(false);
+                for (int attempt = 0; attempt < maxAttempts; attempt++) {
+                    if (attempt > 0) {
+                        RETRIES.increment();
+                    }
+                    try {
+                        Appointment appointment = tryReserve(cm, con);
+                        if (appointment != null) {
+                            long version = Caregiver.getAvailabilityVersion(cm, con, appointment.caregiverUsername);
+                            con.commit();
+                            inventory.recordTaken(vaccineName);
+                            AvailabilityIndex.getInstance().recordRemoved(appointment.caregiverUsername,
+                                    appointment.time, version);
+                            return appointment;
+                        }
+                        con.rollback();
+                        if (status != ReservationStatus.CONFLICT) {
+                            return null;
+                        }
+                    } catch (SQLException e) {
+                        con.rollback();
+                        if (!isConflict(e)) {
+                            throw e;
+                        }
+                    }
+                }
+                status = ReservationStatus.CONFLICT;
+                return null;
+            } finally {
+                cm.returnConnection(con);
+            }
+        }
+
+        private Appointment tryReserve(ConnectionManager cm, Connection con) throws SQLException {
+            String caregiverUsername = claimCaregiver(cm, con);
+            if (caregiverUsername == null) {
+                return null;
+            }
+            Caregiver.bumpAvailabilityVersion(cm, con, caregiverUsername);
+
+            PreparedStatement takeDose = cm.prepareStatement(con, Query.TAKE_DOSE);
+            takeDose.setString(1, vaccineName);
+            if (takeDose.executeUpdate() == 0) {
+                status = ReservationStatus.NOT_ENOUGH_DOSES;
+                return null;
+            }
+
+            // Appointment_id is an IDENTITY column, so the database hands out unique ids without
+            // looking at the rest of the table
+            int appointmentId;
+            PreparedStatement addAppointment = cm.prepareStatement(con, Query.ADD_APPOINTMENT);
+            addAppointment.setString(1, caregiverUsername);
+            addAppointment.setString(2, vaccineName);
+            addAppointment.setDate(3, claimedTime);
+            addAppointment.setString(4, patientUsername);
+            addAppointment.executeUpdate();
+            try (ResultSet keys = addAppointment.getGeneratedKeys()) {
+                if (!keys.next()) {
+                    throw new SQLException("No appointment id was generated");
+                }
+                appointmentId = keys.getInt(1);
+            }
+            status = ReservationStatus.RESERVED;
+            return new Appointment(appointmentId, caregiverUsername, vaccineName, claimedTime, patientUsername);
+        }
+
+        // Deletes the first availability row for the date, or the earliest in the range, that no
+        // concurrent booking has taken yet.
+        // The DELETE holds the row lock until commit, so only one transaction sees an update count of 1.
+        private String claimCaregiver(ConnectionManager cm, Connection con) throws SQLException {
+            List<Date> dates = new ArrayList<>();
+            List<String> candidates = new ArrayList<>();
+            if (indexed != null) {
+                // the in-process index instead of a query; the claim below still checks the database
+                for (String caregiver : indexed) {
+                    dates.add(time);
+                    candidates.add(caregiver);
+                }
+                policy.order(candidates, null, patientUsername);
+            } else if (until == null) {
+                List<Integer> bookings = policy == AssignmentPolicy.LEAST_BOOKED ? new ArrayList<>() : null;
+                PreparedStatement findCaregivers = cm.prepareStatement(con, policy.candidatesQuery());
+                findCaregivers.setDate(1, time);
+                try (ResultSet resultSet = findCaregivers.executeQuery()) {
+                    while (resultSet.next()) {
+                        dates.add(time);
+                        candidates.add(resultSet.getString(1));
+                        if (bookings != null) {
+                            bookings.add(resultSet.getInt(2));
+                        }
+                    }
+                }
+                policy.order(candidates, bookings, patientUsername);
+            } else {
+                // the first few free slots in date order, one range seek on the primary key
+                PreparedStatement findSlots = cm.prepareStatement(con, Query.FIND_EARLIEST_AVAILABILITIES);
+                findSlots.setString(1, vaccineName);
+                findSlots.setDate(2, time);
+                findSlots.setDate(3, until);
+                findSlots.setInt(4, rangeCandidates);
+                try (ResultSet resultSet = findSlots.executeQuery()) {
+                    while (resultSet.next()) {
+                        dates.add(resultSet.getDate(1));
+                        candidates.add(resultSet.getString(2));
+                    }
+                }
+                // the policy picks among the caregivers of each date, earliest date first
+                for (int start = 0; start < dates.size(); ) {
+                    int end = start + 1;
+                    while (end < dates.size() && dates.get(end).equals(dates.get(start))) {
+                        end++;
+                    }
+                    policy.order(candidates.subList(start, end), null, patientUsername);
+                    start = end;
+                }
+            }
+            if (candidates.isEmpty()) {
+                status = ReservationStatus.NO_CAREGIVER;
+                if (until != null && !inStock(cm, con)) {
+                    // the range query only returns slots while the vaccine is in stock
+                    status = ReservationStatus.NOT_ENOUGH_DOSES;
+                }
+                return null;
+            }
+
+            PreparedStatement claimSlot = cm.prepareStatement(con, Query.CLAIM_AVAILABILITY);
+            for (int i = 0; i < candidates.size(); i++) {
+                claimSlot.setDate(1, dates.get(i));
+                claimSlot.setString(2, candidates.get(i));
+                if (claimSlot.executeUpdate() == 1) {
+                    claimedTime = dates.get(i);
+                    return candidates.get(i);
+                }
+                LOST_CLAIMS.increment();
+                lostClaims++;
+                // the row is gone, whether or not this reservation goes through
+                AvailabilityIndex.getInstance().recordGone(candidates.get(i), dates.get(i));
+                if (indexed != null) {
+                    indexed.remove(candidates.get(i));
+                }
+            }
+            status = ReservationStatus.CONFLICT;
+            return null;
+        }
+
+        // asked on the reservation's own connection: the inventory cache may need one to refresh
+        private boolean inStock(ConnectionManager cm, Connection con) throws SQLException {
+            PreparedStatement statement = cm.prepareStatement(con, Query.GET_VACCINE);
+            statement.setString(1, vaccineName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && resultSet.getInt(2) > 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package scheduler.model;
+
+import scheduler.db.Query;
+import scheduler.util.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The order in which a reservation tries to claim the caregivers available on its date, set with
+ * AssignmentPolicy. Concurrent reservations that try caregivers in the same order all go for the
+ * same availability row, and all but one lose the claim and move on to the next; spreading them
+ * over different caregivers lets them succeed on their first claim.
+ */
+public enum AssignmentPolicy {
+    // by username, as before policies existed; every reservation contends for the same row
+    FIRST,
+    RANDOM,
+    // each reservation in this process starts one caregiver further along
+    ROUND_ROBIN,
+    // the same patient always starts at the same caregiver
+    PATIENT_HASH,
+    // fewest appointments on record first, ties in random order; costs counting their appointments
+    LEAST_BOOKED;
+
+    private static final AtomicInteger NEXT = new AtomicInteger();
+
+    // read once; the entry points call fromConfig() at startup so a bad value stops them right away
+    private static final AssignmentPolicy CONFIGURED = parse(Config.get("AssignmentPolicy", "RANDOM"));
+
+    public static AssignmentPolicy fromConfig() {
+        return CONFIGURED;
+    }
+
+    private static AssignmentPolicy parse(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid AssignmentPolicy: " + value + ", expected one of " +
+                    Arrays.toString(values()));
+        }
+    }
+
+    // the statement listing the candidates for a date, with their appointment counts for LEAST_BOOKED
+    Query candidatesQuery() {
+        return this == LEAST_BOOKED ? Query.FIND_LEAST_BOOKED_CAREGIVERS : Query.FIND_AVAILABLE_CAREGIVERS;
+    }
+
+    /**
+     * Reorders the candidates of one date, given sorted by username, or for LEAST_BOOKED by their
+     * appointment counts in bookings. Without counts, LEAST_BOOKED falls back to random order.
+     */
+    void order(List<String> candidates, List<Integer> bookings, String patientUsername) {
+        int n = candidates.size();
+        if (n < 2) {
+            return;
+        }
+        switch (this) {
+            case FIRST:
+                break;
+            case RANDOM:
+                Collections.shuffle(candidates, ThreadLocalRandom.current());
+                break;
+            case ROUND_ROBIN:
+                Collections.rotate(candidates, -Math.floorMod(NEXT.getAndIncrement(), n));
+                break;
+            case PATIENT_HASH:
+                Collections.rotate(candidates, -Math.floorMod(patientUsername.hashCode(), n));
+                break;
+            case LEAST_BOOKED:
+                if (bookings == null) {
+                    Collections.shuffle(candidates, ThreadLocalRandom.current());
+                    break;
+                }
+                // shuffle each run of equal counts so ties do not all go for the same caregiver
+                for (int start = 0; start < n; ) {
+                    int end = start + 1;
+                    while (end < n && bookings.get(end).equals(bookings.get(start))) {
+                        end++;
+                    }
+                    Collections.shuffle(candidates.subList(start, end), ThreadLocalRandom.current());
+                    start = end;
+                }
+                break;
+        }
+    }
+}
@@ -1,27 +1,41 @@
 
 package scheduler.model;
 
+import scheduler.cache.AvailabilityIndex;
 import scheduler.db.ConnectionManager;
+import scheduler.db.Query;
+import scheduler.util.Config;
+import scheduler.util.PasswordHasher;
 import scheduler.util.Util;
 
 import java.sql.*;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 
 public class Caregiver {
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
+    private final PasswordHasher.Params hashParams;
 
     private Caregiver(CaregiverBuilder builder) {
         this.username = builder.username;
         this.salt = builder.salt;
         this.hash = builder.hash;
+        this.hashParams = builder.hashParams;
     }
 
     private Caregiver(CaregiverGetter getter) {
         this.username = getter.username;
         this.salt = getter.salt;
         this.hash = getter.hash;
+        this.hashParams = getter.hashParams;
     }
 
     // Getters
@@ -37,38 +51,165 @@ public class Caregiver {
         return hash;
     }
 
+    public PasswordHasher.Params getHashParams() {
+        return hashParams;
+    }
+
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        ConnectionManager cm = ConnectionManager.getInstance();
+        Connection con = cm.borrowConnection();
 
-        String addCaregiver = "INSERT INTO Caregivers VALUES (? , ?, ?)";
         try {
-            PreparedStatement statement = con.prepareStatement(addCaregiver);
+            PreparedStatement statement = cm.prepareStatement(con, Query.ADD_CAREGIVER);
             statement.setString(1, this.username);
             statement.setBytes(2, this.salt);
             statement.setBytes(3, this.hash);
+            statement.setString(4, this.hashParams.getAlgorithm());
+            statement.setInt(5, this.hashParams.getIterations());
+            statement.setInt(6, this.hashParams.getKeyLength());
             statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
         } finally {
-            cm.closeConnection();
+            cm.returnConnection(con);
         }
     }
 
     public void uploadAvailability(Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        ConnectionManager cm = ConnectionManager.getInstance();
+        Connection con = cm.borrowConnection();
+        long version;
 
-        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
         try {
-            PreparedStatement statement = con.prepareStatement(addAvailability);
+            con.setAutoCommit(false);
+            PreparedStatement statement = cm.prepareStatement(con, Query.ADD_AVAILABILITY);
             statement.setDate(1, d);
             statement.setString(2, this.username);
             statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
+            bumpAvailabilityVersion(cm, con, this.username);
+            version = getAvailabilityVersion(cm, con, this.username);
+            con.commit();
+        } finally {
+            cm.returnConnection(con);
+        }
+        AvailabilityIndex.getInstance().recordAdded(this.username, Collections.singletonList(d), version);
+    }
+
+    // Uploads several days as JDBC batches in one transaction: either every day is added or none is.
+    public void uploadAvailability(List<Date> dates) throws SQLException {
+        int batchSize = Config.getInt("BatchSize", 1000);
+        ConnectionManager cm = ConnectionManager.getInstance();
+        Connection con = cm.borrowConnection();
+        long version;
+
+        try {
+            con.setAutoCommit(false);
+            PreparedStatement statement = cm.prepareStatement(con, Query.ADD_AVAILABILITY);
+            statement.clearBatch();
+            int batched = 0;
+            for (Date d : dates) {
+                statement.setDate(1, d);
+                statement.setString(2, this.username);
+                statement.addBatch();
+                if (++batched % batchSize == 0) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+            bumpAvailabilityVersion(cm, con, this.username);
+            version = getAvailabilityVersion(cm, con, this.username);
+            con.commit();
         } finally {
-            cm.closeConnection();
+            cm.returnConnection(con);
+        }
+        AvailabilityIndex.getInstance().recordAdded(this.username, dates, version);
+    }
+
+    /**
+     * Makes the caregiver available on every day from start to end inclusive that falls on one of the
+     * given weekdays, as conditional inserts sent in JDBC batches within one transaction. Days the
+     * caregiver is already available are skipped rather than failing the upload. Returns the number
+     * of days added.
+     */
+    public int uploadAvailability(Date start, Date end, Set<DayOfWeek> weekdays) throws SQLException {
+        LocalDate first = start.toLocalDate();
+        LocalDate last = end.toLocalDate();
+        if (last.isBefore(first)) {
+            throw new IllegalArgumentException("End date is before start date!");
+        }
+        if (ChronoUnit.DAYS.between(first, last) >= Config.getInt("MaxAvailabilityRangeDays", 366)) {
+            throw new IllegalArgumentException("Date range is too long!");
+        }
+        List<Date> dates = new ArrayList<>();
+        for (LocalDate day = first; !day.isAfter(last); day = day.plusDays(1)) {
+            if (weekdays.contains(day.getDayOfWeek())) {
+                dates.add(Date.valueOf(day));
+            }
+        }
+
+        ConnectionManager cm = ConnectionManager.getInstance();
+        Connection con = cm.borrowConnection();
+        try {
+            con.setAutoCommit(false);
+            int added;
+            try {
+                added = insertIfAbsent(cm, con, dates);
+            } catch (SQLException e) {
+                // a concurrent upload of the same day can still slip in between the check and the
+                // insert; run again, and this time the check will see its row
+                con.rollback();
+                if (e.getSQLState() == null || !e.getSQLState().startsWith("23")) {
+                    throw e;
+                }
+                added = insertIfAbsent(cm, con, dates);
+            }
+            long version = getAvailabilityVersion(cm, con, this.username);
+            con.commit();
+            // every date is available now, whether this upload or an earlier one added it
+            AvailabilityIndex.getInstance().recordAdded(this.username, dates, version);
+            return added;
+        } finally {
+            cm.returnConnection(con);
+        }
+    }
+
+    private int insertIfAbsent(ConnectionManager cm, Connection con, List<Date> dates) throws SQLException {
+        int batchSize = Config.getInt("BatchSize", 1000);
+        PreparedStatement statement = cm.prepareStatement(con, Query.ADD_AVAILABILITY_IF_ABSENT);
+        statement.clearBatch();
+        int added = 0;
+        for (int i = 0; i < dates.size(); i++) {
+            statement.setDate(1, dates.get(i));
+            statement.setString(2, this.username);
+            statement.setDate(3, dates.get(i));
+            statement.setString(4, this.username);
+            statement.addBatch();
+            if ((i + 1) % batchSize == 0 || i == dates.size() - 1) {
+                for (int count : statement.executeBatch()) {
+                    added += count > 0 ? count : 0;
+                }
+            }
+        }
+        bumpAvailabilityVersion(cm, con, this.username);
+        return added;
+    }
+
+    // Run in the transaction of every change to a caregiver's availability, so that processes with
+    // an AvailabilityIndex see the change.
+    static void bumpAvailabilityVersion(ConnectionManager cm, Connection con, String username) throws SQLException {
+        PreparedStatement statement = cm.prepareStatement(con, Query.BUMP_AVAILABILITY_VERSION);
+        statement.setString(1, username);
+        statement.executeUpdate();
+    }
+
+    // Read in the transaction that bumped the version: its row lock makes this the version that
+    // transaction commits, which lets the AvailabilityIndex tell its own changes from others'.
+    static long getAvailabilityVersion(ConnectionManager cm, Connection con, String username) throws SQLException {
+        PreparedStatement statement = cm.prepareStatement(con, Query.GET_AVAILABILITY_VERSION);
+        statement.setString(1, username);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            if (!resultSet.next()) {
+                throw new SQLException("No caregiver " + username);
+            }
+            return resultSet.getLong(1);
         }
     }
 
@@ -76,11 +217,18 @@ public class Caregiver {
         private final String username;
         private final byte[] salt;
         private final byte[] hash;
+        private final PasswordHasher.Params hashParams;
 
+        // for a hash made with the current PasswordHasher parameters, e.g. by Util.generateHash
         public CaregiverBuilder(String username, byte[] salt, byte[] hash) {
+            this(username, salt, hash, PasswordHasher.getInstance().getParams());
+        }
+
+        public CaregiverBuilder(String username, byte[] salt, byte[] hash, PasswordHasher.Params hashParams) {
             this.username = username;
             this.salt = salt;
             this.hash = hash;
+            this.hashParams = hashParams;
         }
 
         public Caregiver build() {
@@ -93,6 +241,7 @@ public class Caregiver {
         private final String password;
         private byte[] salt;
         private byte[] hash;
+        private PasswordHasher.Params hashParams;
 
         public CaregiverGetter(String username, String password) {
             this.username = username;
@@ -100,34 +249,50 @@ public class Caregiver {
         }
 
         public Caregiver get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
+            ConnectionManager cm = ConnectionManager.getInstance();
+            Connection con = cm.borrowConnection();
 
-            String getCaregiver = "SELECT Salt, Hash FROM Caregivers WHERE Username = ?";
             try {
-                PreparedStatement statement = con.prepareStatement(getCaregiver);
+                PreparedStatement statement = cm.prepareStatement(con, Query.GET_CAREGIVER);
                 statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        byte[] salt = resultSet.getBytes("Salt");
+                        byte[] hash = resultSet.getBytes("Hash");
+                        PasswordHasher.Params params = new PasswordHasher.Params(
+                                resultSet.getString("HashAlgorithm"), resultSet.getInt("HashIterations"),
+                                resultSet.getInt("HashKeyLength"));
+                        // check if the password matches, using the parameters the hash was made with
+                        PasswordHasher hasher = PasswordHasher.getInstance();
+                        if (!hasher.verify("caregiver:" + username, password, salt, hash, params)) {
+                            return null;
+                        }
+                        if (hasher.needsRehash(params)) {
+                            // upgrade the stored hash to the current cost now that we know the password
+                            salt = Util.generateSalt();
+                            hash = hasher.hash(password, salt);
+                            params = hasher.getParams();
+                            PreparedStatement upgrade = cm.prepareStatement(con, Query.UPDATE_CAREGIVER_HASH);
+                            upgrade.setBytes(1, salt);
+                            upgrade.setBytes(2, hash);
+                            upgrade.setString(3, params.getAlgorithm());
+                            upgrade.setInt(4, params.getIterations());
+                            upgrade.setInt(5, params.getKeyLength());
+                            upgrade.setString(6, username);
+                            upgrade.executeUpdate();
+                        } else {
+                            // drop any zero padding left over from the old fixed-width Hash column
+                            hash = Arrays.copyOf(hash, params.getKeyLength() / 8);
+                        }
                         this.salt = salt;
                         this.hash = hash;
+                        this.hashParams = params;
                         return new Caregiver(this);
                     }
                 }
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
             } finally {
-                cm.closeConnection();
+                cm.returnConnection(con);
             }
         }
     }
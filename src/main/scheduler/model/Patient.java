@@ -1,6 +1,8 @@
 package scheduler.model;
 
 import scheduler.db.ConnectionManager;
+import scheduler.db.Query;
+import scheduler.util.PasswordHasher;
 import scheduler.util.Util;
 
 import java.sql.*;
@@ -10,17 +12,20 @@ public class Patient {
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
+    private final PasswordHasher.Params hashParams;
 
     private Patient(PatientBuilder builder) {
         this.username = builder.username;
         this.salt = builder.salt;
         this.hash = builder.hash;
+        this.hashParams = builder.hashParams;
     }
 
     private Patient(PatientGetter getter) {
         this.username = getter.username;
         this.salt = getter.salt;
         this.hash = getter.hash;
+        this.hashParams = getter.hashParams;
     }
 
     // Getters
@@ -36,37 +41,44 @@ public class Patient {
         return hash;
     }
 
+    public PasswordHasher.Params getHashParams() {
+        return hashParams;
+    }
+
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        ConnectionManager cm = ConnectionManager.getInstance();
+        Connection con = cm.borrowConnection();
 
-        String addPatient = "INSERT INTO Patients VALUES (? , ?, ?)";
         try {
-            PreparedStatement statement = con.prepareStatement(addPatient);
+            PreparedStatement statement = cm.prepareStatement(con, Query.ADD_PATIENT);
             statement.setString(1, this.username);
             statement.setBytes(2, this.salt);
             statement.setBytes(3, this.hash);
+            statement.setString(4, this.hashParams.getAlgorithm());
+            statement.setInt(5, this.hashParams.getIterations());
+            statement.setInt(6, this.hashParams.getKeyLength());
             statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
         } finally {
-            cm.closeConnection();
+            cm.returnConnection(con);
         }
     }
 
-
-
-
-
     public static class PatientBuilder {
         private final String username;
         private final byte[] salt;
         private final byte[] hash;
+        private final PasswordHasher.Params hashParams;
 
+        // for a hash made with the current PasswordHasher parameters, e.g. by Util.generateHash
         public PatientBuilder(String username, byte[] salt, byte[] hash) {
+            this(username, salt, hash, PasswordHasher.getInstance().getParams());
+        }
+
+        public PatientBuilder(String username, byte[] salt, byte[] hash, PasswordHasher.Params hashParams) {
             this.username = username;
             this.salt = salt;
             this.hash = hash;
+            this.hashParams = hashParams;
         }
 
         public scheduler.model.Patient build() {
@@ -79,6 +91,7 @@ public class Patient {
         private final String password;
         private byte[] salt;
         private byte[] hash;
+        private PasswordHasher.Params hashParams;
 
         public PatientGetter(String username, String password) {
             this.username = username;
@@ -86,34 +99,50 @@ public class Patient {
         }
 
         public scheduler.model.Patient get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
+            ConnectionManager cm = ConnectionManager.getInstance();
+            Connection con = cm.borrowConnection();
 
-            String getPatient = "SELECT Salt, Hash FROM Patients WHERE Username = ?";
             try {
-                PreparedStatement statement = con.prepareStatement(getPatient);
+                PreparedStatement statement = cm.prepareStatement(con, Query.GET_PATIENT);
                 statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        byte[] salt = resultSet.getBytes("Salt");
+                        byte[] hash = resultSet.getBytes("Hash");
+                        PasswordHasher.Params params = new PasswordHasher.Params(
+                                resultSet.getString("HashAlgorithm"), resultSet.getInt("HashIterations"),
+                                resultSet.getInt("HashKeyLength"));
+                        // check if the password matches, using the parameters the hash was made with
+                        PasswordHasher hasher = PasswordHasher.getInstance();
+                        if (!hasher.verify("patient:" + username, password, salt, hash, params)) {
+                            return null;
+                        }
+                        if (hasher.needsRehash(params)) {
+                            // upgrade the stored hash to the current cost now that we know the password
+                            salt = Util.generateSalt();
+                            hash = hasher.hash(password, salt);
+                            params = hasher.getParams();
+                            PreparedStatement upgrade = cm.prepareStatement(con, Query.UPDATE_PATIENT_HASH);
+                            upgrade.setBytes(1, salt);
+                            upgrade.setBytes(2, hash);
+                            upgrade.setString(3, params.getAlgorithm());
+                            upgrade.setInt(4, params.getIterations());
+                            upgrade.setInt(5, params.getKeyLength());
+                            upgrade.setString(6, username);
+                            upgrade.executeUpdate();
+                        } else {
+                            // drop any zero padding left over from the old fixed-width Hash column
+                            hash = Arrays.copyOf(hash, params.getKeyLength() / 8);
+                        }
                         this.salt = salt;
                         this.hash = hash;
+                        this.hashParams = params;
                         return new scheduler.model.Patient(this);
                     }
                 }
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
             } finally {
-                cm.closeConnection();
+                cm.returnConnection(con);
             }
         }
     }
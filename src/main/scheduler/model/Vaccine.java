@@ -1,11 +1,14 @@
 package scheduler.model;
 
+import scheduler.cache.VaccineInventory;
 import scheduler.db.ConnectionManager;
+import scheduler.db.Query;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Map;
 
 public class Vaccine {
     private final String vaccineName;
@@ -31,19 +34,16 @@ public class Vaccine {
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        ConnectionManager cm = ConnectionManager.getInstance();
+        Connection con = cm.borrowConnection();
 
-        String addDoses = "INSERT INTO vaccines VALUES (?, ?)";
         try {
-            PreparedStatement statement = con.prepareStatement(addDoses);
+            PreparedStatement statement = cm.prepareStatement(con, Query.ADD_VACCINE);
             statement.setString(1, this.vaccineName);
             statement.setInt(2, this.availableDoses);
             statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
         } finally {
-            cm.closeConnection();
+            cm.returnConnection(con);
         }
     }
 
@@ -53,43 +53,25 @@ public class Vaccine {
             throw new IllegalArgumentException("Argument cannot be negative!");
         }
         this.availableDoses += num;
-
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
-        try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        // written behind: the inventory batches restocks into one UPDATE per flush
+        VaccineInventory.getInstance().addDoses(this.vaccineName, num);
     }
 
-    // Decrement the available doses
+    // Decrement the available doses; the database refuses to go below zero, so there is no read first
     public void decreaseAvailableDoses(int num) throws SQLException {
-        if (this.availableDoses - num < 0) {
-            throw new IllegalArgumentException("Not enough available doses!");
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
         }
+        VaccineInventory.getInstance().adjustDoses(Collections.singletonMap(this.vaccineName, -num));
         this.availableDoses -= num;
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+    }
 
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
-        try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+    /**
+     * Changes the available doses of several vaccines in one transaction, e.g. {Pfizer=100, Moderna=-20}.
+     * Either every change is applied or, if one would leave a vaccine with negative doses, none is.
+     */
+    public static void adjustAvailableDoses(Map<String, Integer> deltas) throws SQLException {
+        VaccineInventory.getInstance().adjustDoses(deltas);
     }
 
     @Override
@@ -123,24 +105,12 @@ public class Vaccine {
         }
 
         public Vaccine get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Name = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getVaccine);
-                statement.setString(1, this.vaccineName);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    this.availableDoses = resultSet.getInt("Doses");
-                    return new Vaccine(this);
-                }
+            Integer doses = VaccineInventory.getInstance().getDoses(this.vaccineName);
+            if (doses == null) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            this.availableDoses = doses;
+            return new Vaccine(this);
         }
     }
 }
\ No newline at end of file
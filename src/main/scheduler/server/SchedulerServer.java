@@ -0,0 +1,151 @@
+package scheduler.server;
+
+import scheduler.Scheduler;
+import scheduler.Session;
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.VaccineInventory;
+import scheduler.db.ConnectionManager;
+import scheduler.metrics.Metrics;
+import scheduler.model.AssignmentPolicy;
+import scheduler.util.Config;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves the scheduler's commands over TCP so that one process can handle many users at once.
+ *
+ * Each connection speaks the same line protocol as the console: the client sends a command per
+ * line and reads the replies. Every connection gets its own {@link Session}, so logins are per
+ * connection, and runs on its own thread (a virtual thread on Java 21+). All sessions share the
+ * ConnectionManager pool and the caches. A client that reconnects can log in again with
+ * resume and the session token it got at login, which skips the password hash.
+ *
+ * Usage: SchedulerServer [port]   (default ServerPort, 5414)
+ */
+public class SchedulerServer {
+
+    private final int port;
+    private final ExecutorService sessions = newSessionExecutor();
+    private final AtomicInteger openSessions = new AtomicInteger();
+    private final AtomicLong totalSessions = new AtomicLong();
+    private final int readTimeoutMillis = Config.getInt("ServerReadTimeoutMillis", 600_000);
+    private volatile ServerSocket serverSocket;
+
+    public SchedulerServer(int port) {
+        this.port = port;
+    }
+
+    public static void main(String[] args) throws IOException {
+        // fail on a bad AssignmentPolicy setting now rather than at the first reservation
+        AssignmentPolicy.fromConfig();
+        int port;
+        try {
+            port = args.length > 0 ? Integer.parseInt(args[0]) : Config.getInt("ServerPort", 5414);
+        } catch (NumberFormatException e) {
+            System.out.println("Usage: SchedulerServer [port]");
+            return;
+        }
+        SchedulerServer server = new SchedulerServer(port);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "scheduler-server-shutdown"));
+        AvailabilityIndex.getInstance().preload();
+        server.serve();
+    }
+
+    // Accepts connections until stop() is called.
+    public void serve() throws IOException {
+        try (ServerSocket socket = new ServerSocket(port, Config.getInt("ServerBacklog", 1024))) {
+            this.serverSocket = socket;
+            System.out.println("Scheduler listening on port " + socket.getLocalPort());
+            while (!socket.isClosed()) {
+                Socket client;
+                try {
+                    client = socket.accept();
+                } catch (IOException e) {
+                    if (socket.isClosed()) {
+                        break;
+                    }
+                    throw e;
+                }
+                sessions.execute(() -> handle(client));
+            }
+        }
+    }
+
+    public void stop() {
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            Metrics.recordError("server.stop", e);
+        }
+        sessions.shutdown();
+        VaccineInventory.getInstance().shutdown();
+        ConnectionManager.getInstance().shutdown();
+    }
+
+    public int getOpenSessions() {
+        return openSessions.get();
+    }
+
+    public long getTotalSessions() {
+        return totalSessions.get();
+    }
+
+    private void handle(Socket client) {
+        openSessions.incrementAndGet();
+        totalSessions.incrementAndGet();
+        try (client;
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(
+                     new BufferedOutputStream(client.getOutputStream()), false, StandardCharsets.UTF_8)) {
+            // an idle client would otherwise hold its thread and socket forever
+            client.setSoTimeout(readTimeoutMillis);
+            Session session = new Session(out);
+            Scheduler.printGreeting(out);
+            while (true) {
+                out.print("> ");
+                out.flush();
+                String line = in.readLine();
+                if (line == null) {
+                    break;
+                }
+                if (!Scheduler.execute(session, line)) {
+                    break;
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // the client went away or sent nothing for readTimeoutMillis; its session simply ends
+        } finally {
+            openSessions.decrementAndGet();
+        }
+    }
+
+    // Virtual threads when the JVM has them (Java 21+), otherwise a growing pool of daemon threads.
+    private static ExecutorService newSessionExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "scheduler-session");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
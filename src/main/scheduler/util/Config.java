@@ -0,0 +1,43 @@
+package scheduler.util;
+
+public class Config {
+
+    // Settings are looked up as JVM system properties first (-DPoolMaxSize=20) and then as
+    // environment variables, the same way ConnectionManager reads Server, DBName, UserID and Password.
+    public static String get(String name, String defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            value = System.getenv(name);
+        }
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    public static int getInt(String name, int defaultValue) {
+        String value = get(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid integer for " + name + ": " + value);
+        }
+    }
+
+    public static long getLong(String name, long defaultValue) {
+        String value = get(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid long for " + name + ": " + value);
+        }
+    }
+
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = get(name, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+}
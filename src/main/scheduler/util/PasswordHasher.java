@@ -0,0 +1,293 @@
+package scheduler.util;
+
+import scheduler.metrics.Metrics;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * PBKDF2 password hashing with configurable cost.
+ *
+ * The algorithm, iteration count and key length (in bits) come from HashAlgorithm, HashIterations
+ * and HashKeyLength. They are stored next to each user's hash, so raising them only affects new
+ * hashes; older hashes are still verified with the parameters they were made with, and
+ * {@link #needsRehash} tells the caller to replace them after the next successful login.
+ *
+ * PBKDF2 is computed directly on a per-thread {@link Mac}, which avoids building a new
+ * SecretKeyFactory and Mac for every call. Results are identical to SecretKeyFactory's.
+ *
+ * Successful verifications are remembered for LoginCacheTtlMillis (LoginCacheSize entries, 0 to
+ * disable). An entry is an HMAC, under a random per-process key, of the password and the stored
+ * hash, so it only matches the same password against the same stored hash; a password change
+ * anywhere invalidates it.
+ */
+public class PasswordHasher {
+
+    // what the scheduler used before the parameters became configurable
+    public static final Params LEGACY = new Params("PBKDF2WithHmacSHA1", 10, 16);
+
+    private static final PasswordHasher INSTANCE = new PasswordHasher(new Params(
+            Config.get("HashAlgorithm", "PBKDF2WithHmacSHA256"),
+            Config.getInt("HashIterations", 600_000),
+            Config.getInt("HashKeyLength", 256)));
+
+    private final Params params;
+    private final ThreadLocal<Map<String, Mac>> macs = ThreadLocal.withInitial(HashMap::new);
+    private final ThreadLocal<Map<String, SecretKeyFactory>> factories = ThreadLocal.withInitial(HashMap::new);
+
+    private final int loginCacheSize = Config.getInt("LoginCacheSize", 1024);
+    private final long loginCacheTtlMillis = Config.getLong("LoginCacheTtlMillis", 60_000);
+    private final Map<String, VerifiedLogin> verifiedLogins;
+    private final ThreadLocal<Mac> loginCacheMac;
+
+    public PasswordHasher(Params params) {
+        this.params = params;
+        // fail at startup rather than on the first login
+        try {
+            Mac.getInstance(params.getMacAlgorithm());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported hash algorithm: " + params.getAlgorithm());
+        }
+
+        this.verifiedLogins = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, VerifiedLogin> eldest) {
+                return size() > loginCacheSize;
+            }
+        };
+        byte[] cacheKey = new byte[32];
+        new SecureRandom().nextBytes(cacheKey);
+        this.loginCacheMac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(new SecretKeySpec(cacheKey, "HmacSHA256"));
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    public static PasswordHasher getInstance() {
+        return INSTANCE;
+    }
+
+    // The parameters new hashes are made with.
+    public Params getParams() {
+        return params;
+    }
+
+    public byte[] hash(String password, byte[] salt) {
+        return hash(password, salt, params);
+    }
+
+    public byte[] hash(String password, byte[] salt, Params params) {
+        long start = Metrics.start();
+        byte[] passwordBytes = password.getBytes(StandardCharsets.UTF_8);
+        try {
+            if (passwordBytes.length == 0) {
+                // Mac keys cannot be empty, but SecretKeyFactory handles this case
+                return factoryHash(password, salt, params);
+            }
+            Mac mac = mac(params.getMacAlgorithm());
+            mac.init(new SecretKeySpec(passwordBytes, params.getMacAlgorithm()));
+            return pbkdf2(mac, salt, params.getIterations(), params.getKeyLength() / 8);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+            Metrics.record(Metrics.PASSWORD_HASH, start);
+        }
+    }
+
+    /**
+     * Checks a password against a stored hash made with the given parameters. The stored hash may
+     * carry zero padding from a fixed-width column; only the first keyLength bits are compared.
+     */
+    public boolean verify(String username, String password, byte[] salt, byte[] storedHash, Params params) {
+        int length = params.getKeyLength() / 8;
+        if (storedHash == null || storedHash.length < length) {
+            return false;
+        }
+        byte[] expected = Arrays.copyOf(storedHash, length);
+
+        byte[] token = null;
+        if (loginCacheSize > 0) {
+            token = loginToken(password, salt, expected);
+            synchronized (verifiedLogins) {
+                VerifiedLogin verified = verifiedLogins.get(username);
+                if (verified != null && verified.expiresAt > System.currentTimeMillis()
+                        && MessageDigest.isEqual(verified.token, token)) {
+                    return true;
+                }
+            }
+        }
+
+        boolean matches = MessageDigest.isEqual(expected, hash(password, salt, params));
+        if (matches && token != null) {
+            synchronized (verifiedLogins) {
+                verifiedLogins.put(username, new VerifiedLogin(token,
+                        System.currentTimeMillis() + loginCacheTtlMillis));
+            }
+        }
+        return matches;
+    }
+
+    // Whether a hash made with these parameters should be replaced by one made with ours.
+    public boolean needsRehash(Params stored) {
+        return !params.equals(stored);
+    }
+
+    private byte[] loginToken(String password, byte[] salt, byte[] expected) {
+        Mac mac = loginCacheMac.get();
+        mac.update(password.getBytes(StandardCharsets.UTF_8));
+        mac.update(salt);
+        return mac.doFinal(expected);
+    }
+
+    private Mac mac(String algorithm) throws NoSuchAlgorithmException {
+        Map<String, Mac> perThread = macs.get();
+        Mac mac = perThread.get(algorithm);
+        if (mac == null) {
+            mac = Mac.getInstance(algorithm);
+            perThread.put(algorithm, mac);
+        }
+        return mac;
+    }
+
+    private byte[] factoryHash(String password, byte[] salt, Params params) throws GeneralSecurityException {
+        Map<String, SecretKeyFactory> perThread = factories.get();
+        SecretKeyFactory factory = perThread.get(params.getAlgorithm());
+        if (factory == null) {
+            factory = SecretKeyFactory.getInstance(params.getAlgorithm());
+            perThread.put(params.getAlgorithm(), factory);
+        }
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, params.getIterations(), params.getKeyLength());
+        try {
+            return factory.generateSecret(spec).getEncoded();
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    // RFC 8018 section 5.2, reusing the output buffers across iterations
+    private static byte[] pbkdf2(Mac mac, byte[] salt, int iterations, int length) throws InvalidKeyException {
+        int hLen = mac.getMacLength();
+        byte[] result = new byte[length];
+        byte[] u = new byte[hLen];
+        byte[] t = new byte[hLen];
+        byte[] blockIndex = new byte[4];
+        int blocks = (length + hLen - 1) / hLen;
+        try {
+            for (int block = 1; block <= blocks; block++) {
+                blockIndex[0] = (byte) (block >>> 24);
+                blockIndex[1] = (byte) (block >>> 16);
+                blockIndex[2] = (byte) (block >>> 8);
+                blockIndex[3] = (byte) block;
+                mac.update(salt);
+                mac.update(blockIndex);
+                mac.doFinal(u, 0);
+                System.arraycopy(u, 0, t, 0, hLen);
+                for (int i = 1; i < iterations; i++) {
+                    mac.update(u);
+                    mac.doFinal(u, 0);
+                    for (int j = 0; j < hLen; j++) {
+                        t[j] ^= u[j];
+                    }
+                }
+                int offset = (block - 1) * hLen;
+                System.arraycopy(t, 0, result, offset, Math.min(hLen, length - offset));
+            }
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException(e);
+        }
+        return result;
+    }
+
+    private static class VerifiedLogin {
+        private final byte[] token;
+        private final long expiresAt;
+
+        VerifiedLogin(byte[] token, long expiresAt) {
+            this.token = token;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    // The cost parameters a hash was made with.
+    public static final class Params {
+        private final String algorithm;
+        private final int iterations;
+        private final int keyLength;
+
+        public Params(String algorithm, int iterations, int keyLength) {
+            if (!algorithm.startsWith("PBKDF2WithHmac")) {
+                throw new IllegalArgumentException("Unsupported hash algorithm: " + algorithm);
+            }
+            if (iterations <= 0) {
+                throw new IllegalArgumentException("Hash iterations must be positive!");
+            }
+            if (keyLength <= 0 || keyLength % 8 != 0) {
+                throw new IllegalArgumentException("Hash key length must be a positive multiple of 8 bits!");
+            }
+            this.algorithm = algorithm;
+            this.iterations = iterations;
+            this.keyLength = keyLength;
+        }
+
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        // e.g. HmacSHA256 for PBKDF2WithHmacSHA256
+        String getMacAlgorithm() {
+            return algorithm.substring("PBKDF2With".length());
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+
+        // in bits
+        public int getKeyLength() {
+            return keyLength;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Params)) {
+                return false;
+            }
+            Params other = (Params) o;
+            return iterations == other.iterations && keyLength == other.keyLength
+                    && algorithm.equals(other.algorithm);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(algorithm, iterations, keyLength);
+        }
+
+        @Override
+        public String toString() {
+            return algorithm + ":" + iterations + ":" + keyLength;
+        }
+    }
+}
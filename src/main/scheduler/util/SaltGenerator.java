@@ -0,0 +1,43 @@
+package scheduler.util;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Random salts and tokens. Each thread keeps its own SecureRandom, so generating a salt neither
+ * seeds a new generator nor contends with other threads on a shared one.
+ */
+public class SaltGenerator {
+
+    public static final int SALT_LENGTH = 16;
+
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
+    public static byte[] generateSalt() {
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.get().nextBytes(salt);
+        return salt;
+    }
+
+    // n salts from a single call into the generator, for bulk account creation
+    public static byte[][] generateSalts(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
+        }
+        byte[] bytes = new byte[n * SALT_LENGTH];
+        RANDOM.get().nextBytes(bytes);
+        byte[][] salts = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            salts[i] = Arrays.copyOfRange(bytes, i * SALT_LENGTH, (i + 1) * SALT_LENGTH);
+        }
+        return salts;
+    }
+
+    // A URL-safe random string carrying the given number of random bytes.
+    public static String generateToken(int numBytes) {
+        byte[] bytes = new byte[numBytes];
+        RANDOM.get().nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
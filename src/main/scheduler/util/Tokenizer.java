@@ -0,0 +1,49 @@
+package scheduler.util;
+
+public class Tokenizer {
+
+    private static final String[] EMPTY = new String[0];
+
+    /**
+     * Splits a command line on runs of spaces, ignoring leading and trailing ones. One pass counts
+     * the tokens and a second copies them into an array of exactly that size, so the only
+     * allocations are the array and the tokens themselves; String.split also builds a list and
+     * copies it. Both passes find token ends with indexOf, which the JIT vectorizes.
+     */
+    public static String[] split(String line) {
+        int count = 0;
+        int length = line.length();
+        int i = 0;
+        while (true) {
+            while (i < length && line.charAt(i) == ' ') {
+                i++;
+            }
+            if (i == length) {
+                break;
+            }
+            count++;
+            i = line.indexOf(' ', i);
+            if (i < 0) {
+                break;
+            }
+        }
+        if (count == 0) {
+            return EMPTY;
+        }
+
+        String[] tokens = new String[count];
+        i = 0;
+        for (int token = 0; token < count; token++) {
+            while (line.charAt(i) == ' ') {
+                i++;
+            }
+            int end = line.indexOf(' ', i);
+            if (end < 0) {
+                end = length;
+            }
+            tokens[token] = line.substring(i, end);
+            i = end;
+        }
+        return tokens;
+    }
+}
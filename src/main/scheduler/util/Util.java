@@ -1,41 +1,17 @@
 package scheduler.util;
 
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
 import java.util.Arrays;
 
 public class Util {
 
-    // constants for handling password
-    private static final int HASH_STRENGTH = 10;
-    private static final int KEY_LENGTH = 16;
-
     public static byte[] generateSalt() {
-        // Generate a random cryptographic salt
-        SecureRandom random = new SecureRandom();
-        byte[] salt = new byte[16];
-        random.nextBytes(salt);
-        return salt;
+        // Generate a random cryptographic salt, see SaltGenerator
+        return SaltGenerator.generateSalt();
     }
 
     public static byte[] generateHash(String password, byte[] salt) {
-        // Specify the hash parameters
-        KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, HASH_STRENGTH, KEY_LENGTH);
-
-        // Generate the hash
-        SecretKeyFactory factory = null;
-        byte[] hash = null;
-        try {
-            factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-            hash = factory.generateSecret(spec).getEncoded();
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
-            throw new IllegalStateException();
-        }
-        return hash;
+        // Hash with the configured cost, see PasswordHasher
+        return PasswordHasher.getInstance().hash(password, salt);
     }
 
     public static byte[] trim(byte[] bytes)